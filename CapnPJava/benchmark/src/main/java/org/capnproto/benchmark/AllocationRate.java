@@ -0,0 +1,82 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import org.capnproto.BuilderArena;
+import org.capnproto.MessageBuilder;
+import org.capnproto.StructList;
+import org.capnproto.benchmark.CarSalesSchema.*;
+
+/*
+ * Measures how many bytes the builder and reader paths allocate per message, using the
+ * allocation counter of the current thread. Each message is a CarSales parking lot of
+ * CARS_PER_LOT random cars, which is then read back to total the value of the cars. The
+ * message builder is reused, so what remains is the accessor objects and anything the pointer
+ * code allocates on top of them.
+ */
+public class AllocationRate {
+
+    static final int CARS_PER_LOT = 50;
+
+    static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1 && args.length != 2) {
+            System.out.println("USAGE: AllocationRate ITERATION_COUNT [FIRST_SEGMENT_WORDS]");
+            return;
+        }
+        long iters = Long.parseLong(args[0]);
+        // a small first segment forces far pointers
+        int firstSegmentWords = args.length == 2 ? Integer.parseInt(args[1])
+            : BuilderArena.SUGGESTED_FIRST_SEGMENT_WORDS;
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        MessageBuilder message = new MessageBuilder(firstSegmentWords);
+        Common.FastRand rng = new Common.FastRand();
+        long total = 0;
+
+        for (int round = 0; round < 5; ++round) {
+            long before = allocatedBytes(threads);
+            for (long ii = 0; ii < iters; ++ii) {
+                message.reset();
+                ParkingLot.Builder lot = message.initRoot(ParkingLot.factory);
+                StructList.Builder<Car.Builder> cars = lot.initCars(CARS_PER_LOT);
+                for (int jj = 0; jj < CARS_PER_LOT; ++jj) {
+                    CarSales.randomCar(rng, cars.get(jj));
+                }
+                for (Car.Reader car : lot.asReader().getCars()) {
+                    total += CarSales.carValue(car);
+                }
+            }
+            long bytes = allocatedBytes(threads) - before;
+            System.out.println("round " + round + ": " + (double) bytes / iters + " bytes/message, "
+                               + (double) bytes / (iters * CARS_PER_LOT) + " bytes/car");
+        }
+        // keep the work observable
+        System.out.println("checksum " + total);
+    }
+}
@@ -30,7 +30,12 @@ public interface Compression {
     public org.capnproto.MessageReader newBufferedReader(
         org.capnproto.BufferedInputStream inputStream) throws IOException;
 
+    public org.capnproto.MessageReader newBufferedReader(
+        org.capnproto.BufferedInputStream inputStream, org.capnproto.Allocator allocator) throws IOException;
+
     public final Compression PACKED = new Packed();
     public final Compression UNCOMPRESSED = new Uncompressed();
+    public final Compression DEFLATE = new Deflate(org.capnproto.Codec.NONE, org.capnproto.Codec.DEFLATE);
+    public final Compression PACKED_DEFLATE = new Deflate(org.capnproto.Codec.PACKED, org.capnproto.Codec.PACKED_DEFLATE);
 }
 
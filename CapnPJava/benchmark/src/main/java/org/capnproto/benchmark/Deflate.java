@@ -0,0 +1,49 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto.benchmark;
+
+import java.io.IOException;
+
+public final class Deflate implements Compression {
+    private final org.capnproto.SerializeCodec codec;
+
+    // messages under the default threshold get the cheaper codec
+    public Deflate(org.capnproto.Codec small, org.capnproto.Codec large) {
+        this.codec = new org.capnproto.SerializeCodec(small, large, org.capnproto.SerializeCodec.DEFAULT_THRESHOLD);
+    }
+
+    public void writeBuffered(org.capnproto.BufferedOutputStream writer,
+                              org.capnproto.MessageBuilder message) throws IOException {
+        this.codec.write(writer, message);
+        writer.flush();
+    }
+
+    public org.capnproto.MessageReader newBufferedReader(
+        org.capnproto.BufferedInputStream inputStream) throws IOException {
+        return this.codec.read(inputStream);
+    }
+
+    public org.capnproto.MessageReader newBufferedReader(
+        org.capnproto.BufferedInputStream inputStream, org.capnproto.Allocator allocator) throws IOException {
+        return this.codec.read(inputStream, org.capnproto.ReaderOptions.DEFAULT_READER_OPTIONS, allocator);
+    }
+}
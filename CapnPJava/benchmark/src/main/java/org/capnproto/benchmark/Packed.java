@@ -34,4 +34,10 @@ public final class Packed implements Compression {
         org.capnproto.BufferedInputStream inputStream) throws IOException {
         return org.capnproto.SerializePacked.read(inputStream);
     }
+
+    public org.capnproto.MessageReader newBufferedReader(
+        org.capnproto.BufferedInputStream inputStream, org.capnproto.Allocator allocator) throws IOException {
+        return org.capnproto.SerializePacked.read(inputStream, org.capnproto.ReaderOptions.DEFAULT_READER_OPTIONS,
+                                                  allocator);
+    }
 }
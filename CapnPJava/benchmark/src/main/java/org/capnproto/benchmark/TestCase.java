@@ -28,6 +28,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileDescriptor;
 
+import org.capnproto.Allocator;
 import org.capnproto.StructFactory;
 import org.capnproto.MessageBuilder;
 import org.capnproto.MessageReader;
@@ -44,14 +45,44 @@ public abstract class TestCase<RequestFactory extends
     public abstract boolean checkResponse(ResponseReader response, Expectation expected);
 
 
+    // A null allocator means the runtime's default heap allocation, with no explicit releases.
+    static MessageBuilder nextMessage(MessageBuilder previous, boolean reuse, Allocator allocator) {
+        if (previous != null) {
+            if (reuse) {
+                previous.reset();
+                return previous;
+            }
+            if (allocator != null) {
+                previous.close();
+            }
+        }
+        return allocator == null ? new MessageBuilder() : new MessageBuilder(allocator);
+    }
+
+    static MessageReader readMessage(Compression compression, org.capnproto.BufferedInputStream inputStream,
+                                     Allocator allocator) throws IOException {
+        if (allocator == null) {
+            return compression.newBufferedReader(inputStream);
+        }
+        return compression.newBufferedReader(inputStream, allocator);
+    }
+
+    static void releaseMessage(MessageReader messageReader, Allocator allocator) {
+        if (allocator != null) {
+            messageReader.close();
+        }
+    }
+
     public void passByObject(RequestFactory requestFactory, ResponseFactory responseFactory,
-                             Compression compression, long iters) {
+                             Compression compression, boolean reuse, Allocator allocator, long iters) {
 
         Common.FastRand rng = new Common.FastRand();
+        MessageBuilder requestMessage = null;
+        MessageBuilder responseMessage = null;
 
         for (int i = 0; i < iters; ++i) {
-            MessageBuilder requestMessage = new MessageBuilder();
-            MessageBuilder responseMessage = new MessageBuilder();
+            requestMessage = nextMessage(requestMessage, reuse, allocator);
+            responseMessage = nextMessage(responseMessage, reuse, allocator);
             RequestBuilder request = requestMessage.initRoot(requestFactory);
             Expectation expected = this.setupRequest(rng, request);
             ResponseBuilder response = responseMessage.initRoot(responseFactory);
@@ -65,15 +96,18 @@ public abstract class TestCase<RequestFactory extends
     static final int SCRATCH_SIZE = 128 * 1024;
 
     public void passByBytes(RequestFactory requestFactory, ResponseFactory responseFactory,
-                            Compression compression, long iters) throws IOException {
+                            Compression compression, boolean reuse, Allocator allocator,
+                            long iters) throws IOException {
 
         ByteBuffer requestBytes = ByteBuffer.allocate(SCRATCH_SIZE * 8);
         ByteBuffer responseBytes = ByteBuffer.allocate(SCRATCH_SIZE * 8);
         Common.FastRand rng = new Common.FastRand();
+        MessageBuilder requestMessage = null;
+        MessageBuilder responseMessage = null;
 
         for (int i = 0; i < iters; ++i) {
-            MessageBuilder requestMessage = new MessageBuilder();
-            MessageBuilder responseMessage = new MessageBuilder();
+            requestMessage = nextMessage(requestMessage, reuse, allocator);
+            responseMessage = nextMessage(responseMessage, reuse, allocator);
             RequestBuilder request = requestMessage.initRoot(requestFactory);
             Expectation expected = this.setupRequest(rng, request);
             ResponseBuilder response = responseMessage.initRoot(responseFactory);
@@ -105,74 +139,104 @@ public abstract class TestCase<RequestFactory extends
     }
 
     public void syncServer(RequestFactory requestFactory, ResponseFactory responseFactory,
-                           Compression compression, long iters) throws IOException {
+                           Compression compression, boolean reuse, Allocator allocator,
+                           long iters) throws IOException {
+        Allocator bufferAllocator = allocator == null ? org.capnproto.BuilderArena.SUGGESTED_ALLOCATOR : allocator;
         org.capnproto.BufferedOutputStreamWrapper outBuffered =
-            new org.capnproto.BufferedOutputStreamWrapper((new FileOutputStream(FileDescriptor.out)).getChannel());
+            new org.capnproto.BufferedOutputStreamWrapper((new FileOutputStream(FileDescriptor.out)).getChannel(),
+                                                          bufferAllocator);
         org.capnproto.BufferedInputStreamWrapper inBuffered =
-            new org.capnproto.BufferedInputStreamWrapper((new FileInputStream(FileDescriptor.in)).getChannel());
+            new org.capnproto.BufferedInputStreamWrapper((new FileInputStream(FileDescriptor.in)).getChannel(),
+                                                         bufferAllocator);
+        MessageBuilder responseMessage = null;
 
         for (int ii = 0; ii < iters; ++ii) {
-            MessageBuilder responseMessage = new MessageBuilder();
+            responseMessage = nextMessage(responseMessage, reuse, allocator);
             {
                 ResponseBuilder response = responseMessage.initRoot(responseFactory);
-                MessageReader messageReader = compression.newBufferedReader(inBuffered);
+                MessageReader messageReader = readMessage(compression, inBuffered, allocator);
                 RequestReader request = messageReader.getRoot(requestFactory);
                 this.handleRequest(request, response);
+                releaseMessage(messageReader, allocator);
             }
             compression.writeBuffered(outBuffered, responseMessage);
         }
     }
 
     public void syncClient(RequestFactory requestFactory, ResponseFactory responseFactory,
-                           Compression compression, long iters) throws IOException {
+                           Compression compression, boolean reuse, Allocator allocator,
+                           long iters) throws IOException {
         Common.FastRand rng = new Common.FastRand();
+        Allocator bufferAllocator = allocator == null ? org.capnproto.BuilderArena.SUGGESTED_ALLOCATOR : allocator;
         org.capnproto.BufferedOutputStreamWrapper outBuffered =
-            new org.capnproto.BufferedOutputStreamWrapper((new FileOutputStream(FileDescriptor.out)).getChannel());
+            new org.capnproto.BufferedOutputStreamWrapper((new FileOutputStream(FileDescriptor.out)).getChannel(),
+                                                          bufferAllocator);
         org.capnproto.BufferedInputStreamWrapper inBuffered =
-            new org.capnproto.BufferedInputStreamWrapper((new FileInputStream(FileDescriptor.in)).getChannel());
+            new org.capnproto.BufferedInputStreamWrapper((new FileInputStream(FileDescriptor.in)).getChannel(),
+                                                         bufferAllocator);
+        MessageBuilder requestMessage = null;
 
         for (int ii = 0; ii < iters; ++ii) {
-            MessageBuilder requestMessage = new MessageBuilder();
+            requestMessage = nextMessage(requestMessage, reuse, allocator);
             RequestBuilder request = requestMessage.initRoot(requestFactory);
             Expectation expected = this.setupRequest(rng, request);
 
             compression.writeBuffered(outBuffered, requestMessage);
-            MessageReader messageReader = compression.newBufferedReader(inBuffered);
+            MessageReader messageReader = readMessage(compression, inBuffered, allocator);
             ResponseReader response = messageReader.getRoot(responseFactory);
             if (!this.checkResponse(response, expected)) {
                 throw new Error("incorrect response");
             }
+            releaseMessage(messageReader, allocator);
         }
     }
 
     public void execute(String[] args, RequestFactory requestFactory, ResponseFactory responseFactory) {
 
-        if (args.length != 4) {
-            System.out.println("USAGE: TestCase MODE REUSE COMPRESSION ITERATION_COUNT");
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("USAGE: TestCase MODE REUSE COMPRESSION ITERATION_COUNT [ALLOCATOR]");
             return;
         }
 
         String mode = args[0];
-        String reuse = args[1];
+        boolean reuse = false;
+        if (args[1].equals("reuse")) {
+            reuse = true;
+        } else if (!args[1].equals("no-reuse")) {
+            throw new Error("unrecognized reuse option: " + args[1]);
+        }
         Compression compression = null;
         if (args[2].equals("packed")) {
             compression = Compression.PACKED;
         } else if (args[2].equals("none")) {
             compression = Compression.UNCOMPRESSED;
+        } else if (args[2].equals("deflate")) {
+            compression = Compression.DEFLATE;
+        } else if (args[2].equals("packed-deflate")) {
+            compression = Compression.PACKED_DEFLATE;
         } else {
             throw new Error("unrecognized compression: " + args[2]);
         }
         long iters = Long.parseLong(args[3]);
+        Allocator allocator = null;
+        if (args.length == 5) {
+            if (args[4].equals("direct")) {
+                // direct buffers are too expensive to create per message, so keep them pooled
+                allocator = new org.capnproto.PooledAllocator(new org.capnproto.DirectAllocator(), 64 * 1024 * 1024);
+            } else if (!args[4].equals("heap")) {
+                throw new Error("unrecognized allocator: " + args[4]);
+            }
+        }
 
         try {
             if (mode.equals("object")) {
-                passByObject(requestFactory, responseFactory, compression, iters);
+                passByObject(requestFactory, responseFactory, compression, reuse, allocator, iters);
             } else if (mode.equals("bytes")) {
-                passByBytes(requestFactory, responseFactory, compression, iters);
+                passByBytes(requestFactory, responseFactory, compression, reuse, allocator, iters);
             } else if (mode.equals("client")) {
-                syncClient(requestFactory, responseFactory, compression, iters);
+                syncClient(requestFactory, responseFactory, compression, reuse, allocator, iters);
             } else if (mode.equals("server")) {
-                syncServer(requestFactory, responseFactory, compression, iters);
+                syncServer(requestFactory, responseFactory, compression, reuse, allocator, iters);
             } else {
                 System.out.println("unrecognized mode: " + mode);
             }
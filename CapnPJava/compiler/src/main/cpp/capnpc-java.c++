@@ -1062,6 +1062,16 @@ private:
             spaces(indent), "    return _initPointerField(", factoryArg, ", ", offset, ", size);\n",
             spaces(indent), "  }\n",
 
+            spaces(indent), "  public final org.capnproto.Orphan<", builderType, "> disown", titleCase, "() {\n",
+            unionDiscrim.check,
+            spaces(indent), "    return _disownPointerField(", factoryArg, ", ", offset, ");\n",
+            spaces(indent), "  }\n",
+
+            spaces(indent), "  public final void adopt", titleCase, "(org.capnproto.Orphan<", builderType, "> value) {\n",
+            unionDiscrim.set,
+            spaces(indent), "    _adoptPointerField(value, ", offset, ");\n",
+            spaces(indent), "  }\n",
+
             (field.getType().getBrandParameter() == nullptr ? kj::strTree() :
              kj::strTree(spaces(indent), "  public <", readerType, "> void set", titleCase,
                          "(org.capnproto.SetPointerBuilder<", builderType, ",", readerType, "> factory,",
@@ -1129,6 +1139,16 @@ private:
           unionDiscrim.set,
           spaces(indent), "    return ",
           "_initPointerField(", factoryArg, ",",  offset, ", 0);\n",
+          spaces(indent), "  }\n",
+
+          spaces(indent), "  public final org.capnproto.Orphan<", builderType, "> disown", titleCase, "() {\n",
+          unionDiscrim.check,
+          spaces(indent), "    return _disownPointerField(", factoryArg, ", ", offset, ");\n",
+          spaces(indent), "  }\n",
+
+          spaces(indent), "  public final void adopt", titleCase, "(org.capnproto.Orphan<", builderType, "> value) {\n",
+          unionDiscrim.set,
+          spaces(indent), "    _adoptPointerField(value, ", offset, ");\n",
           spaces(indent), "  }\n"),
       };
 
@@ -1178,6 +1198,15 @@ private:
 
           spaces(indent), "  public final ", builderType, " init", titleCase, "(int size) {\n",
           spaces(indent), "    return _initPointerField(", factory, ", ", offset, ", size);\n",
+          spaces(indent), "  }\n",
+
+          spaces(indent), "  public final org.capnproto.Orphan<", builderType, "> disown", titleCase, "() {\n",
+          spaces(indent), "    return _disownPointerField(", factory, ", ", offset, ");\n",
+          spaces(indent), "  }\n",
+
+          spaces(indent), "  public final void adopt", titleCase, "(org.capnproto.Orphan<", builderType, "> value) {\n",
+          unionDiscrim.set,
+          spaces(indent), "    _adoptPointerField(value, ", offset, ");\n",
           spaces(indent), "  }\n"),
       };
     } else if (kind == FieldKind::LIST) {
@@ -1219,6 +1248,14 @@ private:
             spaces(indent), "  public final ", builderType,
             " init", titleCase, "(int size) {\n",
             spaces(indent), "    return _initPointerField(", listFactory, ", ", offset, ", size);\n",
+            spaces(indent), "  }\n",
+
+            spaces(indent), "  public final org.capnproto.Orphan<", builderType, "> disown", titleCase, "() {\n",
+            spaces(indent), "    return _disownPointerField(", listFactory, ", ", offset, ");\n",
+            spaces(indent), "  }\n",
+
+            spaces(indent), "  public final void adopt", titleCase, "(org.capnproto.Orphan<", builderType, "> value) {\n",
+            spaces(indent), "    _adoptPointerField(value, ", offset, ");\n",
             spaces(indent), "  }\n"),
       };
     } else {
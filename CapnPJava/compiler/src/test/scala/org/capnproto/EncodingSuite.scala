@@ -26,6 +26,20 @@ import org.scalatest.FunSuite
 import org.scalatest.Matchers._
 
 class EncodingSuite extends FunSuite {
+  // hands out fresh heap buffers and remembers them
+  class RecordingAllocator extends Allocator {
+    val allocated = new scala.collection.mutable.ArrayBuffer[java.nio.ByteBuffer]()
+    def allocateSegment(minimumWords: Int): java.nio.ByteBuffer = {
+      val result = java.nio.ByteBuffer.allocate(minimumWords * 8)
+      allocated += result
+      result
+    }
+    def releaseSegment(segment: java.nio.ByteBuffer): Unit = {}
+    def reusesSegments(): Boolean = false
+  }
+
+  def isZeroed(buffer: java.nio.ByteBuffer): Boolean = (0 until buffer.capacity()).forall(buffer.get(_) == 0)
+
   test("AllTypes") {
     val message = new MessageBuilder()
     val allTypes = message.initRoot(TestAllTypes.factory)
@@ -43,6 +57,320 @@ class EncodingSuite extends FunSuite {
     TestUtil.checkTestMessage(allTypes.asReader())
   }
 
+  test("FarPointers") {
+    // a one-word first segment only holds the root pointer, so every struct, list and text
+    // lands in a segment of its own behind a far pointer
+    val message = new MessageBuilder(1, BuilderArena.AllocationStrategy.FIXED_SIZE)
+    val allTypes = message.initRoot(TestAllTypes.factory)
+    TestUtil.initTestMessage(allTypes)
+    val segments = message.getSegmentsForOutput()
+    segments.length should be > 2
+    WirePointer.kind(segments(0).getLong(0)) should equal (WirePointer.FAR)
+
+    TestUtil.checkTestMessage(allTypes)
+    TestUtil.checkTestMessage(allTypes.asReader())
+
+    val bytes = new java.io.ByteArrayOutputStream()
+    Serialize.write(java.nio.channels.Channels.newChannel(bytes), message)
+    val reader = Serialize.read(java.nio.ByteBuffer.wrap(bytes.toByteArray()))
+    reader.validate()
+    TestUtil.checkTestMessage(reader.getRoot(TestAllTypes.factory))
+  }
+
+  test("Reset") {
+    val message = new MessageBuilder(5, BuilderArena.AllocationStrategy.GROW_HEURISTICALLY)
+    TestUtil.initTestMessage(message.initRoot(TestAllTypes.factory))
+    val segmentCount = message.getSegmentsForOutput().length
+
+    message.reset()
+    val cleared = message.getSegmentsForOutput()
+    cleared should have length 1
+    cleared(0).limit() should equal (0)
+
+    val allTypes = message.initRoot(TestAllTypes.factory)
+    TestUtil.initTestMessage(allTypes)
+    TestUtil.checkTestMessage(allTypes)
+    TestUtil.checkTestMessage(allTypes.asReader())
+    message.getSegmentsForOutput() should have length segmentCount
+  }
+
+  test("PooledAllocator") {
+    val allocator = new PooledAllocator(new HeapAllocator(), 1 << 20)
+    for (ii <- 0 until 3) {
+      val message = new MessageBuilder(5, BuilderArena.AllocationStrategy.GROW_HEURISTICALLY, allocator)
+      val allocTypes = message.initRoot(TestAllTypes.factory)
+      TestUtil.initTestMessage(allocTypes)
+      TestUtil.checkTestMessage(allocTypes.asReader())
+      message.close()
+      allocator.pooledBytes() should be > 0L
+    }
+
+    // a second message of the same shape is built entirely in the buffers the first one released
+    val backing = new RecordingAllocator()
+    val pool = new PooledAllocator(backing, 1 << 20)
+    for (ii <- 0 until 2) {
+      val message = new MessageBuilder(5, BuilderArena.AllocationStrategy.GROW_HEURISTICALLY, pool)
+      TestUtil.initTestMessage(message.initRoot(TestAllTypes.factory))
+      message.close()
+    }
+    val allocated = backing.allocated.length
+    pool.misses() should equal (allocated.toLong)
+    pool.hits() should equal (allocated.toLong)
+    backing.allocated.forall(isZeroed) should equal (true)
+    val reused = pool.allocateSegment(5)
+    backing.allocated.exists(_ eq reused) should equal (true)
+    backing.allocated should have length allocated
+  }
+
+  test("SuppliedBufferAllocator") {
+    val buffer = java.nio.ByteBuffer.allocate(256 * 8)
+    for (ii <- 0 until buffer.capacity()) { buffer.put(ii, 0x5a.toByte) }
+    val fallback = new RecordingAllocator()
+    val allocator = new SuppliedBufferAllocator(Array(buffer), fallback)
+    isZeroed(buffer) should equal (true)
+
+    // a first segment larger than the supplied region comes from the fallback
+    val large = new MessageBuilder(512, BuilderArena.AllocationStrategy.FIXED_SIZE, allocator)
+    fallback.allocated should have length 1
+    large.close()
+
+    for (ii <- 0 until 2) {
+      val message = new MessageBuilder(256, BuilderArena.AllocationStrategy.FIXED_SIZE, allocator)
+      val allTypes = message.initRoot(TestAllTypes.factory)
+      allTypes.setTextField("supplied")
+      allTypes.initStructField().setInt32Field(-12345678)
+      isZeroed(buffer) should equal (false)
+      allTypes.asReader().getTextField().toString() should equal ("supplied")
+      allTypes.asReader().getStructField().getInt32Field() should equal (-12345678)
+      message.close()
+      // the region comes back zeroed and serves the next message
+      isZeroed(buffer) should equal (true)
+      fallback.allocated should have length 1
+    }
+  }
+
+  test("DirectAllocator") {
+    val allocator = new DirectAllocator()
+    allocator.allocateSegment(4).isDirect() should equal (true)
+    allocator.allocateSegment(4).capacity() should equal (32)
+    val message = new MessageBuilder(allocator)
+    val allTypes = message.initRoot(TestAllTypes.factory)
+    TestUtil.initTestMessage(allTypes)
+    message.getSegmentsForOutput().forall(_.isDirect()) should equal (true)
+    TestUtil.checkTestMessage(allTypes.asReader())
+    message.close()
+  }
+
+  test("ThreadLocalAllocator") {
+    // one 64-word segment is 512 bytes, so each thread pools at most two of them
+    val allocator = new ThreadLocalAllocator(new HeapAllocator(), 1024, 1024)
+    var maxPooledBytes = 0L
+
+    def buildAndClose(count: Int): Unit = {
+      val messages = Array.fill(count) {
+        val message = new MessageBuilder(64, BuilderArena.AllocationStrategy.FIXED_SIZE, allocator)
+        message.getRoot(AnyPointer.factory).setAs(Text.factory, new Text.Reader("pooled"))
+        message
+      }
+      for (message <- messages) {
+        message.close()
+        allocator.synchronized { maxPooledBytes = maxPooledBytes max allocator.pooledBytes() }
+      }
+    }
+
+    def thread(body: => Unit): Thread = {
+      val result = new Thread(new Runnable { def run(): Unit = body })
+      result.start()
+      result
+    }
+
+    val firstDone = new java.util.concurrent.CountDownLatch(1)
+    val secondDone = new java.util.concurrent.CountDownLatch(1)
+    // three misses, the third segment over the per-thread limit; then two hits
+    val first = thread {
+      buildAndClose(3)
+      buildAndClose(2)
+      firstDone.countDown()
+      secondDone.await()
+    }
+    firstDone.await()
+    allocator.hits() should equal (2L)
+    allocator.misses() should equal (3L)
+    allocator.pooledBytes() should equal (1024L)
+
+    // the first thread is still alive and holds the whole global budget, and its pool is not
+    // shared, so the second thread misses every time and pools nothing
+    thread { buildAndClose(3) }.join()
+    secondDone.countDown()
+    first.join()
+    allocator.hits() should equal (2L)
+    allocator.misses() should equal (6L)
+    allocator.pooledBytes() should equal (1024L)
+    maxPooledBytes should equal (1024L)
+
+    // a new thread registering drops the pools of the exited ones but keeps their counts
+    var pooledOnRegister = -1L
+    thread {
+      val message = new MessageBuilder(64, BuilderArena.AllocationStrategy.FIXED_SIZE, allocator)
+      pooledOnRegister = allocator.pooledBytes()
+      message.close()
+    }.join()
+    pooledOnRegister should equal (0L)
+    allocator.hits() should equal (2L)
+    allocator.misses() should equal (7L)
+    allocator.pooledBytes() should equal (512L)
+  }
+
+  test("ScratchFirstSegment") {
+    val scratch = java.nio.ByteBuffer.allocateDirect(8 * 1024)
+    for (ii <- 0 until scratch.capacity()) { scratch.put(ii, 0x5a.toByte) }
+    val message = new MessageBuilder(scratch)
+    for (ii <- 0 until 2) {
+      message.reset()
+      val allTypes = message.initRoot(TestAllTypes.factory)
+      TestUtil.initTestMessage(allTypes)
+      TestUtil.checkTestMessage(allTypes.asReader())
+      message.getSegmentsForOutput() should have length 1
+    }
+    message.close()
+  }
+
+  test("SegmentSizeHints") {
+    val hints = new SegmentSizeHints()
+    hints.firstSegmentWords(TestAllTypes.factory) should equal (BuilderArena.SUGGESTED_FIRST_SEGMENT_WORDS)
+
+    val first = new MessageBuilder(5, BuilderArena.AllocationStrategy.GROW_HEURISTICALLY)
+    TestUtil.initTestMessage(first.initRoot(TestAllTypes.factory))
+    hints.record(TestAllTypes.factory, first)
+    hints.firstSegmentWords(TestAllTypes.factory) should equal (first.sizeInWords())
+
+    val second = hints.newMessageBuilder(TestAllTypes.factory)
+    TestUtil.initTestMessage(second.initRoot(TestAllTypes.factory))
+    second.getSegmentsForOutput() should have length 1
+  }
+
+  test("Orphans") {
+    val message = new MessageBuilder()
+    val orphanage = message.getOrphanage()
+    val orphan = orphanage.newOrphan(TestAllTypes.factory)
+    TestUtil.initTestMessage(orphan.get())
+
+    val root = message.initRoot(TestAllTypes.factory)
+    root.adoptStructField(orphan)
+    TestUtil.checkTestMessage(root.getStructField())
+
+    val moved = root.disownStructField()
+    root.hasStructField() should equal (false)
+    TestUtil.checkTestMessage(moved.get())
+    root.initStructList(1).get(0).adoptStructField(moved)
+    TestUtil.checkTestMessage(root.asReader().getStructList().get(0).getStructField())
+
+    val text = root.getStructList().get(0).getStructField().disownTextField()
+    root.adoptTextField(text)
+    root.getTextField().toString() should equal ("foo")
+
+    // small fixed segments put objects and orphan pointers in different segments, so
+    // transfers go through far pointers and landing pads
+    for (segmentWords <- Array(4, 8, 16)) {
+      val multi = new MessageBuilder(segmentWords, BuilderArena.AllocationStrategy.FIXED_SIZE)
+      val any = multi.getRoot(AnyPointer.factory)
+      any.initAs(Data.factory, 24)
+      val data = any.disownAs(Data.factory)
+      data.get().asByteBuffer().remaining() should equal (24)
+      any.adopt(data)
+      any.getAs(Data.factory).asByteBuffer().remaining() should equal (24)
+
+      // adopting over an object reached through a far pointer zeroes it first
+      any.adopt(multi.getOrphanage().newOrphan(TestAllTypes.factory))
+      TestUtil.initTestMessage(any.getAs(TestAllTypes.factory))
+      val struct = any.disownAs(TestAllTypes.factory)
+      TestUtil.checkTestMessage(struct.get())
+      any.adopt(struct)
+      multi.getSegmentsForOutput().length should be > 1
+
+      val reader = new MessageReader(multi.getSegmentsForOutput(), ReaderOptions.DEFAULT_READER_OPTIONS)
+      reader.validate()
+      TestUtil.checkTestMessage(reader.getRoot(TestAllTypes.factory))
+    }
+  }
+
+  test("OrphanSpace") {
+    val message = new MessageBuilder()
+    TestUtil.initTestMessage(message.initRoot(TestAllTypes.factory))
+    val fresh = new MessageBuilder()
+    TestUtil.initTestMessage(fresh.initRoot(TestAllTypes.factory))
+    fresh.compact()
+
+    // every disown leaves a pointer word behind, and so does every orphan that is never adopted
+    val root = message.getRoot(TestAllTypes.factory)
+    val before = message.sizeInWords()
+    for (i <- 0 until 100) {
+      root.adoptStructField(root.disownStructField())
+      message.getOrphanage().newOrphan(TestAllTypes.factory)
+    }
+    message.sizeInWords() should be >= (before + 200)
+
+    // compacting drops all of it
+    message.compact()
+    message.sizeInWords() should equal (fresh.sizeInWords())
+    TestUtil.checkTestMessage(message.getRoot(TestAllTypes.factory))
+  }
+
+  test("Compact") {
+    val message = new MessageBuilder(5, BuilderArena.AllocationStrategy.GROW_HEURISTICALLY)
+    val root = message.initRoot(TestAllTypes.factory)
+    TestUtil.initTestMessage(root)
+    root.setTextField("a longer text that leaves the old one behind as a hole")
+    message.getSegmentsForOutput().length should be > 1
+
+    message.compact()
+    val segments = message.getSegmentsForOutput()
+    segments should have length 1
+    segments(0).limit() should equal (message.sizeInWords() * 8)
+
+    val compacted = message.getRoot(TestAllTypes.factory)
+    compacted.getTextField().toString() should equal ("a longer text that leaves the old one behind as a hole")
+    compacted.setTextField("foo")
+    TestUtil.checkTestMessage(compacted)
+
+    val copy = MessageBuilder.copyCompacted(new MessageReader(message.getSegmentsForOutput(), ReaderOptions.DEFAULT_READER_OPTIONS))
+    copy.getSegmentsForOutput() should have length 1
+    TestUtil.checkTestMessage(copy.getRoot(TestAllTypes.factory))
+  }
+
+  test("Validate") {
+    val message = new MessageBuilder(5, BuilderArena.AllocationStrategy.GROW_HEURISTICALLY)
+    TestUtil.initTestMessage(message.initRoot(TestAllTypes.factory))
+
+    val reader = new MessageReader(message.getSegmentsForOutput(), ReaderOptions.DEFAULT_READER_OPTIONS)
+    reader.validate()
+    TestUtil.checkTestMessage(reader.getRoot(TestAllTypes.factory))
+
+    val trusted = new MessageReader(message.getSegmentsForOutput(), ReaderOptions.TRUSTED_READER_OPTIONS)
+    TestUtil.checkTestMessage(trusted.getRoot(TestAllTypes.factory))
+
+    // a far pointer to a landing pad whose struct lies before it, i.e. a negative offset
+    val backwards = java.nio.ByteBuffer.allocate(24).order(java.nio.ByteOrder.LITTLE_ENDIAN)
+    backwards.putLong(0, (2L << 3) | 2)
+    backwards.putLong(8, 0x1234L)
+    backwards.putLong(16, (1L << 32) | ((-2L << 2) & 0xffffffffL))
+    val backwardsReader = new MessageReader(Array(backwards), ReaderOptions.DEFAULT_READER_OPTIONS)
+    backwardsReader.validate()
+    backwardsReader.getRoot(AnyPointer.factory).isNull() should equal (false)
+
+    // a root struct pointer that reaches past the end of its segment
+    val corrupt = java.nio.ByteBuffer.allocate(16).order(java.nio.ByteOrder.LITTLE_ENDIAN)
+    corrupt.putLong(0, (1L << 32) | (1000L << 2))
+    a [DecodeException] should be thrownBy {
+      new MessageReader(Array(corrupt), ReaderOptions.DEFAULT_READER_OPTIONS).validate()
+    }
+
+    // a message that passes the traversal limit
+    a [DecodeException] should be thrownBy {
+      new MessageReader(message.getSegmentsForOutput(), new ReaderOptions(10, 64)).validate()
+    }
+  }
+
   test("Setters") {
     val message = new MessageBuilder()
     val allTypes = message.initRoot(TestAllTypes.factory)
@@ -13,14 +13,19 @@ ITERS=100000
 time run_java org.capnproto.benchmark.CarSales object no-reuse none $ITERS
 time run_java org.capnproto.benchmark.CarSales bytes no-reuse none $ITERS
 time run_java org.capnproto.benchmark.CarSales bytes no-reuse packed $ITERS
+time run_java org.capnproto.benchmark.CarSales bytes no-reuse packed-deflate $ITERS
 time run_java org.capnproto.benchmark.CarSales client no-reuse none $ITERS < fifo | run_java org.capnproto.benchmark.CarSales server no-reuse none $ITERS > fifo
 time run_java org.capnproto.benchmark.CarSales client no-reuse packed $ITERS < fifo | run_java org.capnproto.benchmark.CarSales server no-reuse packed $ITERS > fifo
+time run_java org.capnproto.benchmark.CarSales client no-reuse none $ITERS direct < fifo | run_java org.capnproto.benchmark.CarSales server no-reuse none $ITERS direct > fifo
+time run_java org.capnproto.benchmark.CarSales client no-reuse packed $ITERS direct < fifo | run_java org.capnproto.benchmark.CarSales server no-reuse packed $ITERS direct > fifo
+time run_java org.capnproto.benchmark.AllocationRate $ITERS
 
 
 ITERS=10000
 time run_java org.capnproto.benchmark.CatRank object no-reuse none $ITERS
 time run_java org.capnproto.benchmark.CatRank bytes no-reuse none $ITERS
 time run_java org.capnproto.benchmark.CatRank bytes no-reuse packed $ITERS
+time run_java org.capnproto.benchmark.CatRank bytes no-reuse packed-deflate $ITERS
 time run_java org.capnproto.benchmark.CatRank client no-reuse none $ITERS < fifo | run_java org.capnproto.benchmark.CatRank server no-reuse none $ITERS > fifo
 time run_java org.capnproto.benchmark.CatRank client no-reuse packed $ITERS < fifo | run_java org.capnproto.benchmark.CatRank server no-reuse packed $ITERS > fifo
 
@@ -54,6 +54,12 @@ public final class Addressbook {
       public final org.capnproto.Text.Builder initName(int size) {
         return _initPointerField(org.capnproto.Text.factory, 0, size);
       }
+      public final org.capnproto.Orphan<org.capnproto.Text.Builder> disownName() {
+        return _disownPointerField(org.capnproto.Text.factory, 0);
+      }
+      public final void adoptName(org.capnproto.Orphan<org.capnproto.Text.Builder> value) {
+        _adoptPointerField(value, 0);
+      }
       public final boolean hasEmail() {
         return !_pointerFieldIsNull(1);
       }
@@ -69,6 +75,12 @@ public final class Addressbook {
       public final org.capnproto.Text.Builder initEmail(int size) {
         return _initPointerField(org.capnproto.Text.factory, 1, size);
       }
+      public final org.capnproto.Orphan<org.capnproto.Text.Builder> disownEmail() {
+        return _disownPointerField(org.capnproto.Text.factory, 1);
+      }
+      public final void adoptEmail(org.capnproto.Orphan<org.capnproto.Text.Builder> value) {
+        _adoptPointerField(value, 1);
+      }
       public final boolean hasPhones() {
         return !_pointerFieldIsNull(2);
       }
@@ -81,6 +93,12 @@ public final class Addressbook {
       public final org.capnproto.StructList.Builder<org.capnproto.examples.Addressbook.Person.PhoneNumber.Builder> initPhones(int size) {
         return _initPointerField(org.capnproto.examples.Addressbook.Person.PhoneNumber.listFactory, 2, size);
       }
+      public final org.capnproto.Orphan<org.capnproto.StructList.Builder<org.capnproto.examples.Addressbook.Person.PhoneNumber.Builder>> disownPhones() {
+        return _disownPointerField(org.capnproto.examples.Addressbook.Person.PhoneNumber.listFactory, 2);
+      }
+      public final void adoptPhones(org.capnproto.Orphan<org.capnproto.StructList.Builder<org.capnproto.examples.Addressbook.Person.PhoneNumber.Builder>> value) {
+        _adoptPointerField(value, 2);
+      }
       public final Employment.Builder getEmployment() {
         return new Person.Employment.Builder(segment, data, pointers, dataSize, pointerCount);
       }
@@ -171,6 +189,12 @@ public final class Addressbook {
         public final org.capnproto.Text.Builder initNumber(int size) {
           return _initPointerField(org.capnproto.Text.factory, 0, size);
         }
+        public final org.capnproto.Orphan<org.capnproto.Text.Builder> disownNumber() {
+          return _disownPointerField(org.capnproto.Text.factory, 0);
+        }
+        public final void adoptNumber(org.capnproto.Orphan<org.capnproto.Text.Builder> value) {
+          _adoptPointerField(value, 0);
+        }
         public final org.capnproto.examples.Addressbook.Person.PhoneNumber.Type getType() {
           switch(_getShortField(0)) {
             case 0 : return org.capnproto.examples.Addressbook.Person.PhoneNumber.Type.MOBILE;
@@ -288,6 +312,13 @@ public final class Addressbook {
         public final org.capnproto.Text.Builder initEmployer(int size) {
           return _initPointerField(org.capnproto.Text.factory, 3, size);
         }
+        public final org.capnproto.Orphan<org.capnproto.Text.Builder> disownEmployer() {
+          return _disownPointerField(org.capnproto.Text.factory, 3);
+        }
+        public final void adoptEmployer(org.capnproto.Orphan<org.capnproto.Text.Builder> value) {
+          _setShortField(2, (short)Person.Employment.Which.EMPLOYER.ordinal());
+          _adoptPointerField(value, 3);
+        }
         public final boolean isSchool() {
           return which() == Person.Employment.Which.SCHOOL;
         }
@@ -309,6 +340,13 @@ public final class Addressbook {
         public final org.capnproto.Text.Builder initSchool(int size) {
           return _initPointerField(org.capnproto.Text.factory, 3, size);
         }
+        public final org.capnproto.Orphan<org.capnproto.Text.Builder> disownSchool() {
+          return _disownPointerField(org.capnproto.Text.factory, 3);
+        }
+        public final void adoptSchool(org.capnproto.Orphan<org.capnproto.Text.Builder> value) {
+          _setShortField(2, (short)Person.Employment.Which.SCHOOL.ordinal());
+          _adoptPointerField(value, 3);
+        }
         public final boolean isSelfEmployed() {
           return which() == Person.Employment.Which.SELF_EMPLOYED;
         }
@@ -432,6 +470,12 @@ public final class Addressbook {
       public final org.capnproto.StructList.Builder<org.capnproto.examples.Addressbook.Person.Builder> initPeople(int size) {
         return _initPointerField(org.capnproto.examples.Addressbook.Person.listFactory, 0, size);
       }
+      public final org.capnproto.Orphan<org.capnproto.StructList.Builder<org.capnproto.examples.Addressbook.Person.Builder>> disownPeople() {
+        return _disownPointerField(org.capnproto.examples.Addressbook.Person.listFactory, 0);
+      }
+      public final void adoptPeople(org.capnproto.Orphan<org.capnproto.StructList.Builder<org.capnproto.examples.Addressbook.Person.Builder>> value) {
+        _adoptPointerField(value, 0);
+      }
     }
 
     public static final class Reader extends org.capnproto.StructReader {
@@ -0,0 +1,50 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Supplies the memory that a BuilderArena lays out its segments in.
+ */
+public interface Allocator {
+
+	/*
+	 * Returns a buffer with room for at least `minimumWords` words, positioned at zero and with
+	 * every byte up to its limit set to zero. The arena sets the byte order itself.
+	 */
+	public ByteBuffer allocateSegment(int minimumWords);
+
+	/*
+	 * Takes back a buffer previously handed out by allocateSegment() once its message has been
+	 * discarded. If reusesSegments() is true, the caller zeroes the bytes it used before
+	 * releasing, so the buffer is all zeroes again when it arrives here.
+	 */
+	public void releaseSegment(ByteBuffer segment);
+
+	/*
+	 * Whether released buffers may be handed out again. Only then do callers zero what they used
+	 * before releasing; an allocator that leaves released buffers to the garbage collector
+	 * returns false and spares them that work.
+	 */
+	public boolean reusesSegments();
+}
@@ -97,6 +97,14 @@ public final class AnyPointer {
 			return new Reader(segment, pointer, 0x7fffffff);
 		}
 
+		public final <T> Orphan<T> disownAs(FromPointerBuilder<T> factory) {
+			return Orphan.disown(factory, this.segment, this.pointer);
+		}
+
+		public final void adopt(Orphan<?> orphan) {
+			orphan.adoptInto(this.segment, this.pointer);
+		}
+
 		public final void clear() {									//removes the pointer and zeros the pointed object 
 			WireHelpers.zeroObject(this.segment, this.pointer);
 			this.segment.buffer.putLong(this.pointer * Constants.BITS_PER_BYTE, 0L);
@@ -35,8 +35,9 @@ public final class ArrayInputStream implements BufferedInputStream {
 	}
 
 	public final int read(ByteBuffer dst) throws IOException {
-		//number of bytes remaining in the destination buffer
-		int size = dst.remaining();
+		if (!this.buf.hasRemaining()) { return -1; }
+		//number of bytes to copy: as many as fit, but no more than are left
+		int size = Math.min(dst.remaining(), this.buf.remaining());
 
 		// fills the destination buffer with bytes from this.buffer
 		WireHelpers.writeSlice(this.buf, size, dst);
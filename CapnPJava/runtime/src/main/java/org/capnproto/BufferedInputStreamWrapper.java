@@ -30,11 +30,21 @@ public final class BufferedInputStreamWrapper implements BufferedInputStream {
 
 	private final ReadableByteChannel inner;
 	private final ByteBuffer buf;
+	private final Allocator allocator;
 
 	public BufferedInputStreamWrapper(ReadableByteChannel chan) {
+		this(chan, BuilderArena.SUGGESTED_ALLOCATOR);
+	}
+
+	/*
+	 * Takes the read buffer from `allocator`, for example to read a socket straight into
+	 * direct memory. close() hands it back.
+	 */
+	public BufferedInputStreamWrapper(ReadableByteChannel chan, Allocator allocator) {
 		this.inner = chan;
-		// allocates a new ByteBuffer with a limit of 8192 Bits
-		this.buf = ByteBuffer.allocate(8192);
+		this.allocator = allocator;
+		// gets a ByteBuffer with room for 8192 bytes
+		this.buf = allocator.allocateSegment(8192 / Constants.BYTES_PER_WORD);
 		// sets the limit of the Buffer to 0, saying that there is nothing to read yet
 		this.buf.limit(0);
 	}
@@ -119,6 +129,11 @@ public final class BufferedInputStreamWrapper implements BufferedInputStream {
 
 	public final void close() throws IOException {
 		this.inner.close();
+		this.buf.clear();
+		if (this.allocator.reusesSegments()) {
+			WireHelpers.memset(this.buf, 0, (byte) 0, this.buf.capacity());
+		}
+		this.allocator.releaseSegment(this.buf);
 	}
 
 	public final boolean isOpen() {
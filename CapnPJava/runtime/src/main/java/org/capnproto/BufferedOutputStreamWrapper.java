@@ -30,10 +30,20 @@ public final class BufferedOutputStreamWrapper implements BufferedOutputStream {
 
 	private final WritableByteChannel inner;
 	private final ByteBuffer buf;
+	private final Allocator allocator;
 
 	public BufferedOutputStreamWrapper(WritableByteChannel w) {
+		this(w, BuilderArena.SUGGESTED_ALLOCATOR);
+	}
+
+	/*
+	 * Takes the write buffer from `allocator`; with direct memory the channel does not have to
+	 * copy it before writing. close() hands it back.
+	 */
+	public BufferedOutputStreamWrapper(WritableByteChannel w, Allocator allocator) {
 		this.inner = w;
-		this.buf = ByteBuffer.allocate(8192);
+		this.allocator = allocator;
+		this.buf = allocator.allocateSegment(8192 / Constants.BYTES_PER_WORD);
 	}
 
 	public final int write(ByteBuffer src) throws IOException {
@@ -102,6 +112,11 @@ public final class BufferedOutputStreamWrapper implements BufferedOutputStream {
 
 	public final void close() throws IOException {
 		this.inner.close();
+		this.buf.clear();
+		if (this.allocator.reusesSegments()) {
+			WireHelpers.memset(this.buf, 0, (byte) 0, this.buf.capacity());
+		}
+		this.allocator.releaseSegment(this.buf);
 	}
 
 	public final boolean isOpen() {
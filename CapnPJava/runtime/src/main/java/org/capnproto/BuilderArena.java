@@ -34,21 +34,63 @@ public final class BuilderArena implements Arena {
 
 	public static final int SUGGESTED_FIRST_SEGMENT_WORDS = 1024;
 	public static final AllocationStrategy SUGGESTED_ALLOCATION_STRATEGY = AllocationStrategy.GROW_HEURISTICALLY;
+	public static final Allocator SUGGESTED_ALLOCATOR = new HeapAllocator();
 
 	public final ArrayList<SegmentBuilder> segments;
+	// cleared segments kept around by clear(), handed out again before anything new is allocated
+	private final ArrayList<SegmentBuilder> spareSegments;
 
 	public int nextSize;
+	private final int firstSegmentSizeWords;
 	public final AllocationStrategy allocationStrategy;
+	public final Allocator allocator;
+	// whether the first segment is a buffer the caller lent us rather than one from `allocator`
+	private final boolean firstSegmentSupplied;
 
 	public BuilderArena(int firstSegmentSizeWords, AllocationStrategy allocationStrategy) {
+		this(firstSegmentSizeWords, allocationStrategy, SUGGESTED_ALLOCATOR);
+	}
+
+	public BuilderArena(int firstSegmentSizeWords, AllocationStrategy allocationStrategy, Allocator allocator) {
 		this.segments = new ArrayList<SegmentBuilder>();
+		this.spareSegments = new ArrayList<SegmentBuilder>();
 		this.nextSize = firstSegmentSizeWords;
+		this.firstSegmentSizeWords = firstSegmentSizeWords;
 		this.allocationStrategy = allocationStrategy;
-		SegmentBuilder segment0 = new SegmentBuilder(ByteBuffer.allocate(firstSegmentSizeWords * Constants.BYTES_PER_WORD), this);
-		segment0.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.allocator = allocator;
+		this.firstSegmentSupplied = false;
+		SegmentBuilder segment0 = this.newSegment(firstSegmentSizeWords);
 		this.segments.add(segment0);
 	}
 
+	/*
+	 * Builds into `firstSegment` (between its position and limit, rounded down to whole words)
+	 * until the message outgrows it. The buffer may hold anything; words are zeroed as they are
+	 * allocated. It stays owned by the caller and is never handed to `allocator`.
+	 */
+	public BuilderArena(ByteBuffer firstSegment, AllocationStrategy allocationStrategy, Allocator allocator) {
+		ByteBuffer buffer = firstSegment.slice();
+		buffer.limit(buffer.capacity() & ~(Constants.BYTES_PER_WORD - 1));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		SegmentBuilder segment0 = new SegmentBuilder(buffer, this);
+		segment0.dirtyEnd = segment0.capacity();
+
+		this.segments = new ArrayList<SegmentBuilder>();
+		this.spareSegments = new ArrayList<SegmentBuilder>();
+		this.nextSize = Math.max(segment0.capacity(), 1);
+		this.firstSegmentSizeWords = this.nextSize;
+		this.allocationStrategy = allocationStrategy;
+		this.allocator = allocator;
+		this.firstSegmentSupplied = true;
+		this.segments.add(segment0);
+	}
+
+	private SegmentBuilder newSegment(int minimumWords) {
+		ByteBuffer buffer = this.allocator.allocateSegment(minimumWords);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return new SegmentBuilder(buffer, this);
+	}
+
 	public final SegmentReader tryGetSegment(int id) {
 		return this.segments.get(id);
 	}
@@ -73,17 +115,31 @@ public final class BuilderArena implements Arena {
 	}
 
 	public AllocateResult allocate(int amount) {
+		SegmentBuilder segment = this.allocateWords(amount);
+		return new AllocateResult(segment, segment.pos - amount);
+	}
+
+	/*
+	 * Like allocate(), but without a result object: the words allocated are the `amount` words
+	 * just below `pos` of the returned segment.
+	 */
+	public SegmentBuilder allocateWords(int amount) {
 
 		int len = this.segments.size();
 		// we allocate the first segment in the constructor.
 
-		int result = this.segments.get(len - 1).allocate(amount);
-		if (result != SegmentBuilder.FAILED_ALLOCATION) { return new AllocateResult(this.segments.get(len - 1), result); }
+		SegmentBuilder last = this.segments.get(len - 1);
+		if (last.allocate(amount) != SegmentBuilder.FAILED_ALLOCATION) { return last; }
 
 		// allocate_owned_memory
 
 		int size = Math.max(amount, this.nextSize);
-		SegmentBuilder newSegment = new SegmentBuilder(ByteBuffer.allocate(size * Constants.BYTES_PER_WORD), this);
+		SegmentBuilder newSegment = this.takeSpareSegment(size);
+		if (newSegment == null) {
+			newSegment = this.newSegment(size);
+		}
+		// the allocator may have handed out more than we asked for
+		size = newSegment.capacity();
 
 		switch (this.allocationStrategy) {
 			case GROW_HEURISTICALLY:
@@ -95,14 +151,72 @@ public final class BuilderArena implements Arena {
 
 		// --------
 
-		newSegment.buffer.order(ByteOrder.LITTLE_ENDIAN);
 		newSegment.id = len;
 		this.segments.add(newSegment);
 
-		return new AllocateResult(newSegment, newSegment.allocate(amount));
+		newSegment.allocate(amount);
+		return newSegment;
+	}
+
+	private SegmentBuilder takeSpareSegment(int words) {
+		// first fit; there are rarely more than a handful of spare segments
+		for (int ii = 0; ii < this.spareSegments.size(); ++ii) {
+			SegmentBuilder spare = this.spareSegments.get(ii);
+			if (spare.capacity() >= words) {
+				this.spareSegments.remove(ii);
+				return spare;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Discards the message built in this arena while keeping its memory for the next one.
+	 * Only the words that were actually allocated get zeroed, and only once they are allocated
+	 * again. Every segment except the first is
+	 * parked as a spare and reused when the next message outgrows the first segment, so
+	 * building a message of similar shape again allocates no new buffers.
+	 */
+	public final void clear() {
+		if (this.segments.isEmpty()) { throw new Error("message builder has been closed"); }
+		for (int ii = 0; ii < this.segments.size(); ++ii) {
+			this.segments.get(ii).clear();
+		}
+		for (int ii = 1; ii < this.segments.size(); ++ii) {
+			this.spareSegments.add(this.segments.get(ii));
+		}
+		this.segments.subList(1, this.segments.size()).clear();
+		this.nextSize = this.firstSegmentSizeWords;
+	}
+
+	/*
+	 * Hands every segment, including the spares, back to the allocator. The arena cannot be used
+	 * afterwards; releasing it again does nothing.
+	 */
+	public final void release() {
+		if (this.segments.isEmpty()) { return; }
+		this.clear();
+		boolean zero = this.allocator.reusesSegments();
+		for (int ii = 0; ii < this.spareSegments.size(); ++ii) {
+			SegmentBuilder spare = this.spareSegments.get(ii);
+			if (zero) {
+				spare.clearAndZero();
+			}
+			this.allocator.releaseSegment(spare.buffer);
+		}
+		this.spareSegments.clear();
+		if (!this.firstSegmentSupplied) {
+			SegmentBuilder segment0 = this.segments.get(0);
+			if (zero) {
+				segment0.clearAndZero();
+			}
+			this.allocator.releaseSegment(segment0.buffer);
+		}
+		this.segments.clear();
 	}
 
 	public final ByteBuffer[] getSegmentsForOutput() {
+		if (this.segments.isEmpty()) { throw new Error("message builder has been closed"); }
 		/*
 		 * This method will get the segments of the message as a ByteArray. This is done by:
 		 * First, initializing an output
@@ -0,0 +1,53 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+ * Turns the bytes of a serialized message into the payload of a frame written by SerializeCodec,
+ * and back. Implementations must be safe to use from several threads at once.
+ */
+public interface Codec {
+
+	/*
+	 * Marks frames encoded with this codec. Ids below 16 are reserved for the codecs below.
+	 */
+	public int id();
+
+	/*
+	 * Encodes the bytes between the position and the limit of `message`, a whole number of words.
+	 * The result is positioned at zero.
+	 */
+	public ByteBuffer encode(ByteBuffer message) throws IOException;
+
+	/*
+	 * Decodes all of `encoded` into `message`, which has exactly the decoded length remaining.
+	 */
+	public void decode(ByteBuffer encoded, ByteBuffer message) throws IOException;
+
+	public static final Codec NONE = new IdentityCodec();
+	public static final Codec PACKED = new PackedCodec();
+	public static final Codec DEFLATE = new DeflateCodec(2, false, java.util.zip.Deflater.DEFAULT_COMPRESSION);
+	public static final Codec PACKED_DEFLATE = new DeflateCodec(3, true, java.util.zip.Deflater.DEFAULT_COMPRESSION);
+}
@@ -0,0 +1,162 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/*
+ * CRC-32C (Castagnoli). Uses java.util.zip.CRC32C where the JDK has it (9 and later), which the
+ * JIT turns into the CPU's CRC32 instructions, and otherwise a table-driven implementation that
+ * consumes eight bytes per step.
+ */
+public final class Crc32c {
+
+	private static final Class<?> JDK_CLASS;
+	private static final Method JDK_UPDATE_BUFFER;
+
+	static {
+		Class<?> jdkClass = null;
+		Method updateBuffer = null;
+		try {
+			jdkClass = Class.forName("java.util.zip.CRC32C");
+			updateBuffer = jdkClass.getMethod("update", ByteBuffer.class);
+		} catch (ReflectiveOperationException e) {
+			jdkClass = null;
+		}
+		JDK_CLASS = jdkClass;
+		JDK_UPDATE_BUFFER = updateBuffer;
+	}
+
+	public static Checksum newChecksum() {
+		if (JDK_CLASS != null) {
+			try {
+				return (Checksum) JDK_CLASS.getConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new Error("could not instantiate " + JDK_CLASS.getName(), e);
+			}
+		}
+		return new TableChecksum();
+	}
+
+	/*
+	 * Feeds the bytes between the position and the limit of `buffer` to `checksum` without moving
+	 * the position.
+	 */
+	public static void update(Checksum checksum, ByteBuffer buffer) {
+		if (checksum instanceof TableChecksum) {
+			((TableChecksum) checksum).updateBuffer(buffer);
+		} else if (buffer.hasArray()) {
+			checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		} else if (JDK_UPDATE_BUFFER != null) {
+			try {
+				JDK_UPDATE_BUFFER.invoke(checksum, buffer.duplicate());
+			} catch (ReflectiveOperationException e) {
+				throw new Error("could not update checksum", e);
+			}
+		} else {
+			byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+			ByteBuffer remaining = buffer.duplicate();
+			while (remaining.hasRemaining()) {
+				int n = Math.min(remaining.remaining(), chunk.length);
+				remaining.get(chunk, 0, n);
+				checksum.update(chunk, 0, n);
+			}
+		}
+	}
+
+	public static int checksum(ByteBuffer[] buffers) {
+		Checksum checksum = newChecksum();
+		for (ByteBuffer buffer : buffers) {
+			update(checksum, buffer);
+		}
+		return (int) checksum.getValue();
+	}
+
+	static final class TableChecksum implements Checksum {
+
+		// the reflected Castagnoli polynomial
+		private static final int POLYNOMIAL = 0x82f63b78;
+
+		// TABLE[k][b] is the CRC of byte b followed by k zero bytes
+		private static final int[][] TABLE = new int[8][256];
+
+		static {
+			for (int ii = 0; ii < 256; ++ii) {
+				int crc = ii;
+				for (int bit = 0; bit < 8; ++bit) {
+					crc = (crc >>> 1) ^ (POLYNOMIAL & -(crc & 1));
+				}
+				TABLE[0][ii] = crc;
+			}
+			for (int ii = 0; ii < 256; ++ii) {
+				for (int k = 1; k < 8; ++k) {
+					TABLE[k][ii] = (TABLE[k - 1][ii] >>> 8) ^ TABLE[0][TABLE[k - 1][ii] & 0xff];
+				}
+			}
+		}
+
+		// kept inverted, as the algorithm works on it
+		private int crc = ~0;
+
+		public void update(int b) {
+			this.crc = (this.crc >>> 8) ^ TABLE[0][(this.crc ^ b) & 0xff];
+		}
+
+		public void update(byte[] b, int off, int len) {
+			updateBuffer(ByteBuffer.wrap(b, off, len));
+		}
+
+		void updateBuffer(ByteBuffer buffer) {
+			ByteBuffer bytes = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			int ptr = bytes.position();
+			int end = bytes.limit();
+			int crc = this.crc;
+			int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3];
+			int[] t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+
+			while (end - ptr >= 8) {
+				long word = bytes.getLong(ptr);
+				int lo = (int) word ^ crc;
+				int hi = (int) (word >>> 32);
+				crc = t7[lo & 0xff] ^ t6[(lo >>> 8) & 0xff] ^ t5[(lo >>> 16) & 0xff] ^ t4[lo >>> 24]
+						^ t3[hi & 0xff] ^ t2[(hi >>> 8) & 0xff] ^ t1[(hi >>> 16) & 0xff] ^ t0[hi >>> 24];
+				ptr += 8;
+			}
+			while (ptr < end) {
+				crc = (crc >>> 8) ^ t0[(crc ^ bytes.get(ptr)) & 0xff];
+				++ptr;
+			}
+			this.crc = crc;
+		}
+
+		public long getValue() {
+			return ~this.crc & 0xffffffffL;
+		}
+
+		public void reset() {
+			this.crc = ~0;
+		}
+	}
+}
@@ -87,22 +87,21 @@ public final class Data {
 		}
 
 		public ByteBuffer asByteBuffer() {
-			this.buffer.mark();
-			this.buffer.position(this.offset);
-			ByteBuffer result = this.buffer.asReadOnlyBuffer().slice();
+			// a view of its own, so the shared buffer's position is left alone for other threads
+			ByteBuffer result = this.buffer.asReadOnlyBuffer();
+			result.position(this.offset);
+			result = result.slice();
 			result.limit(this.size);
-			this.buffer.reset();
 			return result;
 		}
 
 		public byte[] toArray() {
 			// copies the data section of the buffer to an array
 			byte[] result = new byte[this.size];
-			this.buffer.mark();
-			this.buffer.position(this.offset);
+			ByteBuffer source = this.buffer.duplicate();
+			source.position(this.offset);
 			// copies content as big as this.size from this buffers position to the result array, with 0 array-offset
-			this.buffer.get(result, 0, this.size);
-			this.buffer.reset();
+			source.get(result, 0, this.size);
 			return result;
 		}
 	}
@@ -126,22 +125,20 @@ public final class Data {
 		}
 
 		public ByteBuffer asByteBuffer() {
-			this.buffer.mark();
-			this.buffer.position(this.offset);
-			ByteBuffer result = this.buffer.slice();
+			ByteBuffer result = this.buffer.duplicate();
+			result.position(this.offset);
+			result = result.slice();
 			result.limit(this.size);
-			this.buffer.reset();
 			return result;
 		}
 
 		public byte[] toArray() {
 			// copies the data section of the buffer to an array
 			byte[] result = new byte[this.size];
-			this.buffer.mark();
-			this.buffer.position(this.offset);
+			ByteBuffer source = this.buffer.duplicate();
+			source.position(this.offset);
 			// copies content as big as this.size from this buffers position to the result array, with 0 array-offset
-			this.buffer.get(result, 0, this.size);
-			this.buffer.reset();
+			source.get(result, 0, this.size);
 			return result;
 		}
 	}
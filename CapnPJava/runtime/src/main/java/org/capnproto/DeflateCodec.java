@@ -0,0 +1,138 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Deflate from java.util.zip, optionally over the packed encoding, which removes most zero bytes
+ * cheaply and leaves deflate less to do.
+ */
+public final class DeflateCodec implements Codec {
+
+	private final int id;
+	private final boolean packFirst;
+	private final int level;
+
+	// zlib state is expensive to set up, so each thread keeps one of each and resets it per frame
+	private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(DeflateCodec.this.level);
+		}
+	};
+	private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	/*
+	 * `level` is a java.util.zip.Deflater compression level. Codecs with other settings than
+	 * Codec.DEFLATE and Codec.PACKED_DEFLATE need an id of their own.
+	 */
+	public DeflateCodec(int id, boolean packFirst, int level) {
+		this.id = id;
+		this.packFirst = packFirst;
+		this.level = level;
+	}
+
+	public final int id() {
+		return this.id;
+	}
+
+	public final ByteBuffer encode(ByteBuffer message) throws IOException {
+		ByteBuffer input = this.packFirst ? Codec.PACKED.encode(message) : message.slice();
+		int length = input.remaining();
+
+		Deflater deflater = this.deflaters.get();
+		try {
+			if (input.hasArray()) {
+				deflater.setInput(input.array(), input.arrayOffset() + input.position(), length);
+			} else {
+				byte[] bytes = new byte[length];
+				input.get(bytes);
+				deflater.setInput(bytes);
+			}
+			deflater.finish();
+
+			byte[] output = new byte[length / 2 + 64];
+			int outputLength = 0;
+			while (!deflater.finished()) {
+				if (outputLength == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+			}
+			return ByteBuffer.wrap(output, 0, outputLength).slice();
+		} finally {
+			deflater.reset();
+		}
+	}
+
+	public final void decode(ByteBuffer encoded, ByteBuffer message) throws IOException {
+		// the packed form of a message is never much longer than the message itself
+		int inflatedLimit = this.packFirst ? SerializePacked.maxPackedSize(message.remaining()) : message.remaining();
+
+		Inflater inflater = this.inflaters.get();
+		try {
+			if (encoded.hasArray()) {
+				inflater.setInput(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+			} else {
+				byte[] bytes = new byte[encoded.remaining()];
+				encoded.duplicate().get(bytes);
+				inflater.setInput(bytes);
+			}
+
+			byte[] output = new byte[inflatedLimit];
+			int outputLength = 0;
+			while (!inflater.finished()) {
+				if (outputLength == output.length) { throw new IOException("deflated frame is longer than its message"); }
+				int n = inflater.inflate(output, outputLength, output.length - outputLength);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("deflated frame ended early");
+				}
+				outputLength += n;
+			}
+			encoded.position(encoded.limit());
+
+			ByteBuffer inflated = ByteBuffer.wrap(output, 0, outputLength);
+			if (this.packFirst) {
+				Codec.PACKED.decode(inflated, message);
+			} else {
+				Codec.NONE.decode(inflated, message);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("corrupt deflated frame: " + e.getMessage());
+		} finally {
+			inflater.reset();
+		}
+	}
+}
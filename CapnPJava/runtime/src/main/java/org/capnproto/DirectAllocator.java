@@ -0,0 +1,42 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Allocates segments outside of the Java heap, so that channels can write them without first
+ * copying them into a temporary direct buffer. Direct buffers are expensive to create; combine
+ * this with a PooledAllocator when messages are short-lived.
+ */
+public final class DirectAllocator implements Allocator {
+
+	public final ByteBuffer allocateSegment(int minimumWords) {
+		return ByteBuffer.allocateDirect(minimumWords * Constants.BYTES_PER_WORD);
+	}
+
+	public final void releaseSegment(ByteBuffer segment) {}
+
+	public final boolean reusesSegments() {
+		return false;
+	}
+}
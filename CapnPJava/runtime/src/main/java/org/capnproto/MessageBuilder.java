@@ -21,9 +21,9 @@
 
 package org.capnproto;
 
-public final class MessageBuilder {
+public final class MessageBuilder implements AutoCloseable {
 
-	private final BuilderArena arena;
+	private BuilderArena arena;
 
 	public MessageBuilder() {
 		this.arena = new BuilderArena(BuilderArena.SUGGESTED_FIRST_SEGMENT_WORDS, BuilderArena.SUGGESTED_ALLOCATION_STRATEGY);
@@ -37,6 +37,29 @@ public final class MessageBuilder {
 		this.arena = new BuilderArena(firstSegmentWords, allocationStrategy);
 	}
 
+	public MessageBuilder(Allocator allocator) {
+		this.arena = new BuilderArena(BuilderArena.SUGGESTED_FIRST_SEGMENT_WORDS, BuilderArena.SUGGESTED_ALLOCATION_STRATEGY,
+				allocator);
+	}
+
+	public MessageBuilder(int firstSegmentWords, BuilderArena.AllocationStrategy allocationStrategy, Allocator allocator) {
+		this.arena = new BuilderArena(firstSegmentWords, allocationStrategy, allocator);
+	}
+
+	/*
+	 * Builds into a caller-provided buffer, such as a per-connection scratch area, so that messages
+	 * which fit never allocate a segment. The buffer need not be zeroed. It must outlive the
+	 * message, and must not be used for anything else until the message has been written out.
+	 */
+	public MessageBuilder(java.nio.ByteBuffer firstSegment) {
+		this.arena = new BuilderArena(firstSegment, BuilderArena.SUGGESTED_ALLOCATION_STRATEGY,
+				BuilderArena.SUGGESTED_ALLOCATOR);
+	}
+
+	public MessageBuilder(java.nio.ByteBuffer firstSegment, Allocator allocator) {
+		this.arena = new BuilderArena(firstSegment, BuilderArena.SUGGESTED_ALLOCATION_STRATEGY, allocator);
+	}
+
 	private AnyPointer.Builder getRootInternal() {
 		/*
 		 * This method creates a segment with a pointer to it.
@@ -45,6 +68,7 @@ public final class MessageBuilder {
 		 * returns a segment with a pointer to the new allocated location.
 		 * Otherwise it returns a segment with a pointer to its start.
 		 */
+		if (this.arena.segments.isEmpty()) { throw new Error("message builder has been closed"); }
 		SegmentBuilder rootSegment = this.arena.segments.get(0);
 		if (rootSegment.currentSize() == 0) {
 			int location = rootSegment.allocate(1);
@@ -68,6 +92,91 @@ public final class MessageBuilder {
 		return this.getRootInternal().initAs(factory);
 	}
 
+	public final Orphanage getOrphanage() {
+		return new Orphanage(this.arena);
+	}
+
+	/*
+	 * Re-lays the message out in a single segment of exactly the size it needs, leaving out the
+	 * holes that overwritten objects leave behind and the landing pads of far pointers. The old
+	 * segments go back to the allocator. Builders and orphans obtained before compacting must not
+	 * be used afterwards; orphans that were never adopted are dropped.
+	 */
+	public final void compact() {
+		if (this.arena.segments.isEmpty()) { throw new Error("message builder has been closed"); }
+		SegmentBuilder rootSegment = this.arena.segments.get(0);
+		// until the root pointer is allocated, the first word may still hold leftovers
+		BuilderArena compacted = copyCompacted(rootSegment.currentSize() > 0 ? rootSegment : null, Integer.MAX_VALUE,
+				this.arena.allocationStrategy, this.arena.allocator);
+		this.arena.release();
+		this.arena = compacted;
+	}
+
+	/*
+	 * Copies a message that has been read into a new builder, laid out as compact() would.
+	 */
+	public static MessageBuilder copyCompacted(MessageReader reader) {
+		return copyCompacted(reader, BuilderArena.SUGGESTED_ALLOCATOR);
+	}
+
+	public static MessageBuilder copyCompacted(MessageReader reader, Allocator allocator) {
+		SegmentReader rootSegment = reader.arena.tryGetSegment(0);
+		return new MessageBuilder(copyCompacted(rootSegment.buffer.limit() > 0 ? rootSegment : null,
+				reader.nestingLimit, BuilderArena.SUGGESTED_ALLOCATION_STRATEGY, allocator));
+	}
+
+	private MessageBuilder(BuilderArena arena) {
+		this.arena = arena;
+	}
+
+	/*
+	 * `rootSegment` is null for a message without a root.
+	 */
+	private static BuilderArena copyCompacted(SegmentReader rootSegment, int nestingLimit,
+			BuilderArena.AllocationStrategy allocationStrategy, Allocator allocator) {
+		long totalWords = Constants.POINTER_SIZE_IN_WORDS;
+		if (rootSegment != null) {
+			totalWords += WireHelpers.totalSize(rootSegment, 0, nestingLimit);
+		}
+		if (totalWords > Integer.MAX_VALUE / Constants.BYTES_PER_WORD) { throw new Error(
+				"message is too large to fit in a single segment"); }
+		BuilderArena result = new BuilderArena((int) totalWords, allocationStrategy, allocator);
+		if (rootSegment != null) {
+			SegmentBuilder segment = result.segments.get(0);
+			segment.allocate(Constants.POINTER_SIZE_IN_WORDS);
+			WireHelpers.copyPointer(segment, 0, rootSegment, 0, nestingLimit);
+		}
+		return result;
+	}
+
+	/*
+	 * Prepares this builder for the next message, reusing the segments grown so far.
+	 * Any builders or readers obtained from the previous message must not be used afterwards.
+	 */
+	public final void reset() {
+		this.arena.clear();
+	}
+
+	/*
+	 * Returns the segments of this message to its allocator. Call this once the message and
+	 * anything written from getSegmentsForOutput() is no longer needed. Closing an already closed
+	 * builder does nothing; any other use of it afterwards throws.
+	 */
+	public final void close() {
+		this.arena.release();
+	}
+
+	/*
+	 * The number of words allocated so far, over all segments.
+	 */
+	public final long sizeInWords() {
+		long size = 0;
+		for (int ii = 0; ii < this.arena.segments.size(); ++ii) {
+			size += this.arena.segments.get(ii).currentSize();
+		}
+		return size;
+	}
+
 	public final java.nio.ByteBuffer[] getSegmentsForOutput() {
 		//copies the segments of this message to an array
 		return this.arena.getSegmentsForOutput();
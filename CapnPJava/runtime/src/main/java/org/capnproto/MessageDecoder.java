@@ -0,0 +1,332 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * Reassembles messages from a stream that arrives in arbitrary pieces, for example from a
+ * non-blocking socket served by a Selector. It never waits for input: it takes whatever bytes
+ * are available, remembers how far it got, and hands out a MessageReader once a whole message
+ * has arrived. Use one decoder per connection.
+ *
+ * Message bodies are taken from the allocator; closing a MessageReader hands its buffer back,
+ * so with a pooling allocator a long-lived connection reads into the same few buffers.
+ */
+public final class MessageDecoder {
+
+	private static final int READING_FIRST_WORD = 0;
+	private static final int READING_SEGMENT_TABLE = 1;
+	private static final int READING_BODY = 2;
+
+	private static final int MAX_SEGMENTS = 512;
+
+	private final ReaderOptions options;
+	private final Allocator allocator;
+	private final boolean packed;
+
+	private int state = READING_FIRST_WORD;
+	// the buffer currently being filled: one of firstWord, segmentTable or body
+	private ByteBuffer target;
+
+	private final ByteBuffer firstWord;
+	private ByteBuffer segmentTable;
+	private ByteBuffer body;
+	private final int[] segmentSizes = new int[MAX_SEGMENTS];
+	private int segmentCount;
+
+	private final Unpacker unpacker;
+	// bytes read from a channel that have not been unpacked yet
+	private ByteBuffer channelInput;
+	private boolean endOfStream;
+
+	public MessageDecoder() {
+		this(ReaderOptions.DEFAULT_READER_OPTIONS, false);
+	}
+
+	public MessageDecoder(ReaderOptions options, boolean packed) {
+		this(options, packed, BuilderArena.SUGGESTED_ALLOCATOR);
+	}
+
+	public MessageDecoder(ReaderOptions options, boolean packed, Allocator allocator) {
+		this.options = options;
+		this.packed = packed;
+		this.allocator = allocator;
+		this.firstWord = Serialize.makeByteBuffer(Constants.BYTES_PER_WORD);
+		this.target = this.firstWord;
+		this.unpacker = packed ? new Unpacker() : null;
+	}
+
+	/*
+	 * Consumes bytes from `input` until a message is complete and returns it, leaving the rest of
+	 * `input` unread. Returns null once `input` is used up without completing a message; the
+	 * bytes consumed so far are kept, so the next call carries on where this one stopped. A chunk
+	 * can hold several messages, so call this until it returns null.
+	 */
+	public MessageReader decode(ByteBuffer input) throws IOException {
+		while (true) {
+			if (!this.target.hasRemaining()) {
+				MessageReader message = advance();
+				if (message != null) { return message; }
+				continue;
+			}
+			transfer(input);
+			if (this.target.hasRemaining()) { return null; }
+		}
+	}
+
+	/*
+	 * Reads what `channel` has available and returns the next complete message, or null if the
+	 * channel has no more bytes for now. Bytes are read straight into the message buffers when
+	 * the input is not packed. After a null return, atEndOfStream() tells whether the channel has
+	 * closed; a stream that ends in the middle of a message is an error.
+	 */
+	public MessageReader read(ReadableByteChannel channel) throws IOException {
+		while (true) {
+			if (!this.target.hasRemaining()) {
+				MessageReader message = advance();
+				if (message != null) { return message; }
+				continue;
+			}
+
+			int n;
+			if (this.packed) {
+				if (this.channelInput == null) {
+					this.channelInput = Serialize.makeByteBuffer(8192);
+				}
+				this.channelInput.flip();
+				transfer(this.channelInput);
+				this.channelInput.compact();
+				if (!this.target.hasRemaining()) { continue; }
+				n = channel.read(this.channelInput);
+			} else {
+				n = channel.read(this.target);
+			}
+
+			if (n < 0) {
+				if (!atMessageBoundary()) { throw new IOException("premature EOF"); }
+				this.endOfStream = true;
+				return null;
+			}
+			if (n == 0) { return null; }
+		}
+	}
+
+	/*
+	 * Whether read() has seen the channel close between two messages.
+	 */
+	public boolean atEndOfStream() {
+		return this.endOfStream;
+	}
+
+	/*
+	 * Whether no part of a message has been consumed since the last one was returned.
+	 */
+	public boolean atMessageBoundary() {
+		return this.state == READING_FIRST_WORD && this.firstWord.position() == 0
+				&& (this.unpacker == null || this.unpacker.isIdle())
+				&& (this.channelInput == null || this.channelInput.position() == 0);
+	}
+
+	private void transfer(ByteBuffer input) {
+		if (this.packed) {
+			this.unpacker.unpack(input, this.target);
+			return;
+		}
+		int n = Math.min(input.remaining(), this.target.remaining());
+		if (n == 0) { return; }
+		ByteBuffer slice = input.duplicate();
+		slice.limit(slice.position() + n);
+		this.target.put(slice);
+		input.position(input.position() + n);
+	}
+
+	/*
+	 * Moves on once the current target is full. Returns the message if that completed one.
+	 */
+	private MessageReader advance() throws IOException {
+		switch (this.state) {
+		case READING_FIRST_WORD: {
+			this.segmentCount = 1 + this.firstWord.getInt(0);
+			if (this.segmentCount <= 0) { throw new IOException("invalid segment count"); }
+			if (this.segmentCount > MAX_SEGMENTS) { throw new IOException("too many segments"); }
+			int tableBytes = Serialize.segmentTableBytes(this.segmentCount) - Constants.BYTES_PER_WORD;
+			if (this.segmentTable == null || this.segmentTable.capacity() < tableBytes) {
+				this.segmentTable = Serialize.makeByteBuffer(Serialize.segmentTableBytes(MAX_SEGMENTS));
+			}
+			this.segmentTable.clear();
+			this.segmentTable.limit(tableBytes);
+			this.state = READING_SEGMENT_TABLE;
+			this.target = this.segmentTable;
+			return null;
+		}
+		case READING_SEGMENT_TABLE: {
+			long totalWords = 0;
+			for (int ii = 0; ii < this.segmentCount; ++ii) {
+				int size = ii == 0
+						? this.firstWord.getInt(Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION)
+						: this.segmentTable.getInt(Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION * (ii - 1));
+				if (size < 0) { throw new DecodeException("Segment is too large."); }
+				this.segmentSizes[ii] = size;
+				totalWords += size;
+			}
+			if (totalWords > this.options.traversalLimitInWords) {
+				throw new DecodeException("Message size exceeds traversal limit.");
+			}
+			if (totalWords * Constants.BYTES_PER_WORD > Integer.MAX_VALUE) {
+				throw new DecodeException("Message is too large.");
+			}
+			this.body = this.allocator.allocateSegment((int) totalWords);
+			this.body.limit((int) totalWords * Constants.BYTES_PER_WORD);
+			this.body.order(ByteOrder.LITTLE_ENDIAN);
+			this.state = READING_BODY;
+			this.target = this.body;
+			return null;
+		}
+		default: {
+			ByteBuffer allSegments = this.body;
+			ByteBuffer[] segmentSlices = new ByteBuffer[this.segmentCount];
+			int offset = 0;
+			for (int ii = 0; ii < this.segmentCount; ++ii) {
+				allSegments.position(offset);
+				segmentSlices[ii] = allSegments.slice();
+				segmentSlices[ii].limit(this.segmentSizes[ii] * Constants.BYTES_PER_WORD);
+				segmentSlices[ii].order(ByteOrder.LITTLE_ENDIAN);
+				offset += this.segmentSizes[ii] * Constants.BYTES_PER_WORD;
+			}
+			allSegments.rewind();
+
+			this.body = null;
+			this.firstWord.clear();
+			this.state = READING_FIRST_WORD;
+			this.target = this.firstWord;
+			return new MessageReader(segmentSlices, this.options, allSegments, this.allocator);
+		}
+		}
+	}
+
+	/*
+	 * The packed encoding as a state machine, so that a tag, a literal run or a zero run can be
+	 * split across input chunks and across the buffers it unpacks into.
+	 */
+	private static final class Unpacker {
+
+		private static final int EXPECT_TAG = 0;
+		private static final int IN_TAGGED_WORD = 1;
+		private static final int EXPECT_RUN_LENGTH = 2;
+
+		private int state = EXPECT_TAG;
+		private int tag;
+		// the next bit of `tag` to expand
+		private int bit;
+		private int pendingZeroBytes;
+		private int pendingLiteralBytes;
+
+		boolean isIdle() {
+			return this.state == EXPECT_TAG && this.pendingZeroBytes == 0 && this.pendingLiteralBytes == 0;
+		}
+
+		/*
+		 * Unpacks from `input` into `output` until `output` is full or `input` runs dry.
+		 */
+		void unpack(ByteBuffer input, ByteBuffer output) {
+			while (output.hasRemaining()) {
+				if (this.pendingZeroBytes > 0) {
+					int n = Math.min(this.pendingZeroBytes, output.remaining());
+					WireHelpers.memset(output, output.position(), (byte) 0, n);
+					output.position(output.position() + n);
+					this.pendingZeroBytes -= n;
+					continue;
+				}
+
+				if (this.pendingLiteralBytes > 0) {
+					int n = Math.min(this.pendingLiteralBytes, Math.min(output.remaining(), input.remaining()));
+					if (n == 0) { return; }
+					ByteBuffer slice = input.duplicate();
+					slice.limit(slice.position() + n);
+					output.put(slice);
+					input.position(input.position() + n);
+					this.pendingLiteralBytes -= n;
+					continue;
+				}
+
+				switch (this.state) {
+				case EXPECT_TAG:
+					if (!input.hasRemaining()) { return; }
+					this.tag = input.get() & 0xff;
+					if (this.tag == 0) {
+						this.pendingZeroBytes = Constants.BYTES_PER_WORD;
+						this.state = EXPECT_RUN_LENGTH;
+					} else {
+						this.bit = 0;
+						this.state = IN_TAGGED_WORD;
+					}
+					break;
+
+				case IN_TAGGED_WORD:
+					if (this.bit == 0 && input.remaining() >= Constants.BYTES_PER_WORD
+							&& output.remaining() >= Constants.BYTES_PER_WORD) {
+						// the whole word is at hand
+						for (; this.bit < Constants.BITS_PER_BYTE; ++this.bit) {
+							output.put((this.tag & (1 << this.bit)) != 0 ? input.get() : (byte) 0);
+						}
+					} else if ((this.tag & (1 << this.bit)) == 0) {
+						output.put((byte) 0);
+						++this.bit;
+					} else {
+						if (!input.hasRemaining()) { return; }
+						output.put(input.get());
+						++this.bit;
+					}
+					if (this.bit == Constants.BITS_PER_BYTE) {
+						this.state = this.tag == 0xff ? EXPECT_RUN_LENGTH : EXPECT_TAG;
+					}
+					break;
+
+				default:
+					if (!input.hasRemaining()) { return; }
+					int runLength = (input.get() & 0xff) * Constants.BYTES_PER_WORD;
+					if (this.tag == 0) {
+						this.pendingZeroBytes = runLength;
+					} else {
+						this.pendingLiteralBytes = runLength;
+					}
+					this.state = EXPECT_TAG;
+					break;
+				}
+			}
+
+			// a run length that directly follows the end of a message belongs to it
+			if (this.state == EXPECT_RUN_LENGTH && this.pendingZeroBytes == 0 && input.hasRemaining()) {
+				int runLength = (input.get() & 0xff) * Constants.BYTES_PER_WORD;
+				if (this.tag == 0) {
+					this.pendingZeroBytes = runLength;
+				} else {
+					this.pendingLiteralBytes = runLength;
+				}
+				this.state = EXPECT_TAG;
+			}
+		}
+	}
+}
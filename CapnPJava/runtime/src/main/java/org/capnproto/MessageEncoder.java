@@ -0,0 +1,130 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * Queues messages for a non-blocking channel and writes as much of them as the channel accepts
+ * at a time, picking up mid-buffer where the previous write stopped. A selector loop registers
+ * OP_WRITE while hasPending() is true and calls write() when the channel is ready.
+ *
+ * Queued messages are written from their builders' segments without copying, so a builder must
+ * not be changed or reset until hasPending() is false.
+ */
+public final class MessageEncoder {
+
+	// buffers handed to one gathering write
+	private static final int MAX_GATHER = 64;
+
+	private final long maxPendingBytes;
+	private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+	private long pendingBytes;
+
+	public MessageEncoder() {
+		this(Long.MAX_VALUE);
+	}
+
+	/*
+	 * `maxPendingBytes` bounds how much offer() lets queue up before it starts refusing messages.
+	 */
+	public MessageEncoder(long maxPendingBytes) {
+		if (maxPendingBytes <= 0) { throw new Error("maxPendingBytes must be positive"); }
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	/*
+	 * Queues `message` unless that would take the queue past its limit, in which case it returns
+	 * false and the caller should hold off until write() has drained some of the queue. A message
+	 * offered to an empty queue is always accepted, however large.
+	 */
+	public boolean offer(MessageBuilder message) {
+		ByteBuffer[] segments = message.getSegmentsForOutput();
+		ByteBuffer table = Serialize.makeSegmentTable(segments);
+
+		long bytes = table.remaining();
+		for (ByteBuffer segment : segments) {
+			bytes += segment.remaining();
+		}
+		if (!canAccept(bytes)) { return false; }
+
+		this.pending.addLast(table);
+		for (ByteBuffer segment : segments) {
+			if (segment.hasRemaining()) {
+				this.pending.addLast(segment);
+			}
+		}
+		this.pendingBytes += bytes;
+		return true;
+	}
+
+	/*
+	 * Writes queued bytes until the channel stops taking them or the queue is empty. Returns
+	 * whether the queue is empty.
+	 */
+	public boolean write(WritableByteChannel channel) throws IOException {
+		while (!this.pending.isEmpty()) {
+			long written;
+			if (channel instanceof GatheringByteChannel) {
+				int count = 0;
+				for (ByteBuffer buffer : this.pending) {
+					if (count == MAX_GATHER) { break; }
+					this.gather[count++] = buffer;
+				}
+				written = ((GatheringByteChannel) channel).write(this.gather, 0, count);
+				Arrays.fill(this.gather, 0, count, null);
+			} else {
+				written = channel.write(this.pending.peekFirst());
+			}
+
+			this.pendingBytes -= written;
+			while (!this.pending.isEmpty() && !this.pending.peekFirst().hasRemaining()) {
+				this.pending.removeFirst();
+			}
+			if (written == 0) { break; }
+		}
+		return this.pending.isEmpty();
+	}
+
+	/*
+	 * Whether there are queued bytes that have not been written yet.
+	 */
+	public boolean hasPending() {
+		return !this.pending.isEmpty();
+	}
+
+	public long pendingBytes() {
+		return this.pendingBytes;
+	}
+
+	/*
+	 * Whether offer() would accept a message of `bytes` bytes right now.
+	 */
+	public boolean canAccept(long bytes) {
+		return this.pendingBytes == 0 || bytes <= this.maxPendingBytes - this.pendingBytes;
+	}
+}
@@ -0,0 +1,207 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/*
+ * The offset of every message in a file of back-to-back serialized messages, found by walking
+ * the segment tables alone, so that the n-th message can be read without parsing the ones before
+ * it. An index can be saved next to the file it describes and loaded again instead of
+ * rescanning.
+ */
+public final class MessageIndex {
+
+	// headers are read through a window of this size, so runs of small messages cost one read
+	private static final int WINDOW_BYTES = 64 * 1024;
+
+	// offsets[n] is where message n starts; offsets[count] is where the last one ends
+	private long[] offsets = new long[16];
+	private int count;
+
+	// kept between updates, so that polling a file for new messages does not allocate
+	private ByteBuffer window;
+
+	private MessageIndex() {
+	}
+
+	/*
+	 * Indexes every complete message in `channel`. A trailing message that has not been written
+	 * out completely yet is left out; update() picks it up later.
+	 */
+	public static MessageIndex scan(FileChannel channel) throws IOException {
+		MessageIndex index = new MessageIndex();
+		index.update(channel);
+		return index;
+	}
+
+	/*
+	 * Indexes the messages appended to `channel` since the last scan and returns how many there
+	 * were.
+	 */
+	public int update(FileChannel channel) throws IOException {
+		int before = this.count;
+		long fileSize = channel.size();
+		long position = endOffset();
+		if (position + Constants.BYTES_PER_WORD > fileSize) { return 0; }
+
+		if (this.window == null) {
+			this.window = Serialize.makeByteBuffer(WINDOW_BYTES);
+		}
+		ByteBuffer window = this.window;
+		long windowStart = 0;
+		window.limit(0);
+
+		while (position + Constants.BYTES_PER_WORD <= fileSize) {
+			// make sure the window holds the first word, then the whole table
+			int tableBytes = Constants.BYTES_PER_WORD;
+			for (int pass = 0; pass < 2; ++pass) {
+				if (position < windowStart || position + tableBytes > windowStart + window.limit()) {
+					window.clear();
+					window.limit((int) Math.min(WINDOW_BYTES, fileSize - position));
+					windowStart = position;
+					Serialize.fillBuffer(window, channel, position);
+				}
+				if (pass == 0) {
+					int segmentCount = 1 + window.getInt((int) (position - windowStart));
+					if (segmentCount <= 0) {
+						throw new IOException("invalid segment count");
+					}
+					if (segmentCount > 512) {
+						throw new IOException("too many segments");
+					}
+					tableBytes = Serialize.segmentTableBytes(segmentCount);
+				}
+			}
+			if (position + tableBytes > fileSize) { break; }
+
+			int tableStart = (int) (position - windowStart);
+			int segmentCount = 1 + window.getInt(tableStart);
+			long totalWords = 0;
+			for (int ii = 0; ii < segmentCount; ++ii) {
+				int size = window.getInt(tableStart + Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION * (ii + 1));
+				if (size < 0) { throw new DecodeException("Segment is too large."); }
+				totalWords += size;
+			}
+
+			long end = position + tableBytes + totalWords * Constants.BYTES_PER_WORD;
+			if (end > fileSize) { break; }
+			append(end);
+			position = end;
+		}
+		return this.count - before;
+	}
+
+	private void append(long end) {
+		if (this.count + 1 == this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+		}
+		this.offsets[++this.count] = end;
+	}
+
+	/*
+	 * The number of messages indexed.
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	public long offset(int n) {
+		checkIndex(n);
+		return this.offsets[n];
+	}
+
+	/*
+	 * The size of message `n` in bytes, segment table included.
+	 */
+	public long length(int n) {
+		checkIndex(n);
+		return this.offsets[n + 1] - this.offsets[n];
+	}
+
+	/*
+	 * Where the indexed messages end, and the next scan starts.
+	 */
+	public long endOffset() {
+		return this.offsets[this.count];
+	}
+
+	private void checkIndex(int n) {
+		if (n < 0 || n >= this.count) { throw new IndexOutOfBoundsException("message " + n + " of " + this.count); }
+	}
+
+	public MessageReader read(FileChannel channel, int n) throws IOException {
+		return read(channel, n, ReaderOptions.DEFAULT_READER_OPTIONS);
+	}
+
+	/*
+	 * Maps message `n` of the file, as Serialize.readMapped() does.
+	 */
+	public MessageReader read(FileChannel channel, int n, ReaderOptions options) throws IOException {
+		return Serialize.readMapped(channel, offset(n), options);
+	}
+
+	/*
+	 * Saves the index: the number of messages, then the start of each and the end of the last,
+	 * all as little-endian 64-bit integers.
+	 */
+	public void writeTo(WritableByteChannel output) throws IOException {
+		ByteBuffer buffer = Serialize.makeByteBuffer(Constants.BYTES_PER_WORD * (this.count + 2));
+		buffer.putLong((long) this.count);
+		for (int ii = 0; ii <= this.count; ++ii) {
+			buffer.putLong(this.offsets[ii]);
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			output.write(buffer);
+		}
+	}
+
+	/*
+	 * Loads an index saved by writeTo().
+	 */
+	public static MessageIndex readFrom(ReadableByteChannel input) throws IOException {
+		ByteBuffer header = Serialize.makeByteBuffer(Constants.BYTES_PER_WORD);
+		Serialize.fillBuffer(header, input);
+		long count = header.getLong(0);
+		if (count < 0 || count >= Integer.MAX_VALUE / Constants.BYTES_PER_WORD - 1) {
+			throw new IOException("bad message index");
+		}
+
+		ByteBuffer buffer = Serialize.makeByteBuffer(Constants.BYTES_PER_WORD * ((int) count + 1));
+		Serialize.fillBuffer(buffer, input);
+		buffer.flip();
+
+		MessageIndex index = new MessageIndex();
+		index.offsets = new long[(int) count + 2];
+		index.count = (int) count;
+		for (int ii = 0; ii <= index.count; ++ii) {
+			index.offsets[ii] = buffer.getLong();
+			if (ii > 0 && index.offsets[ii] < index.offsets[ii - 1]) { throw new IOException("bad message index"); }
+		}
+		return index;
+	}
+}
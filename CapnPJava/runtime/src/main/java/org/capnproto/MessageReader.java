@@ -24,14 +24,33 @@ package org.capnproto;
 import java.nio.ByteBuffer;
 
 
-public final class MessageReader {
+public final class MessageReader implements AutoCloseable {
 
 	final ReaderArena arena;
 	final int nestingLimit;
 
+	// the buffer the segments were read into, if it came from an allocator
+	private ByteBuffer backing;
+	private final Allocator allocator;
+
 	public MessageReader(ByteBuffer[] segmentSlices, ReaderOptions options) {
+		this(segmentSlices, options, null, null);
+	}
+
+	MessageReader(ByteBuffer[] segmentSlices, ReaderOptions options, ByteBuffer backing, Allocator allocator) {
 		this.nestingLimit = options.nestingLimit;
 		this.arena = new ReaderArena(segmentSlices, options.traversalLimitInWords);
+		this.arena.checkLimit = options.checkTraversalLimit;
+		this.backing = backing;
+		this.allocator = allocator;
+	}
+
+	MessageReader(ReaderArena arena, ReaderOptions options) {
+		this.nestingLimit = options.nestingLimit;
+		this.arena = arena;
+		this.arena.checkLimit = options.checkTraversalLimit;
+		this.backing = null;
+		this.allocator = null;
 	}
 
 	public <T> T getRoot(FromPointerReader<T> factory) {
@@ -39,4 +58,32 @@ public final class MessageReader {
 		AnyPointer.Reader any = new AnyPointer.Reader(segment, 0, this.nestingLimit);
 		return any.getAs(factory);
 	}
+
+	/*
+	 * Walks the whole message once and throws a DecodeException if any pointer in it is out of
+	 * bounds or malformed, or if it exceeds the traversal or nesting limit it was read with. A
+	 * message that passes is then read without traversal-limit accounting, so untrusted input can
+	 * be checked up front and read as fast as trusted input afterwards.
+	 */
+	public final void validate() {
+		SegmentReader segment = this.arena.tryGetSegment(0);
+		if (segment.buffer.limit() < Constants.BYTES_PER_WORD) { throw new DecodeException("Message has no root pointer."); }
+		long[] budget = new long[] { this.arena.limit };
+		WireHelpers.validatePointer(segment, 0, this.nestingLimit, budget);
+		this.arena.checkLimit = false;
+	}
+
+	/*
+	 * Hands the buffer this message was read into back to the allocator it came from. Readers
+	 * obtained from this message must not be used afterwards. Does nothing for messages that
+	 * wrap caller-provided buffers.
+	 */
+	public final void close() {
+		if (this.backing == null) { return; }
+		if (this.allocator.reusesSegments()) {
+			WireHelpers.memset(this.backing, 0, (byte) 0, this.backing.limit());
+		}
+		this.allocator.releaseSegment(this.backing);
+		this.backing = null;
+	}
 }
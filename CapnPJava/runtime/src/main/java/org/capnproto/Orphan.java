@@ -0,0 +1,103 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+/*
+ * An object that lives in a message but is not reachable from its root. Orphans come from
+ * disowning a pointer field, which detaches the object without copying it, or from a
+ * message's Orphanage. Adopting the orphan into a pointer field of the same message attaches
+ * it there, again without copying.
+ *
+ * The orphan keeps its object alive through a pointer word of its own, allocated in the
+ * message. That word stays allocated after the orphan is adopted, and an orphan that is never
+ * adopted still takes up space when the message is written, so a message that moves objects
+ * around often keeps growing. MessageBuilder.compact() gives the space back; see the
+ * "OrphanSpace" test in EncodingSuite.
+ */
+public final class Orphan<T> {
+
+	final FromPointerBuilder<T> factory;
+	SegmentBuilder segment;
+	int pointer; // offset in words of the pointer owned by this orphan
+
+	Orphan(FromPointerBuilder<T> factory, SegmentBuilder segment, int pointer) {
+		this.factory = factory;
+		this.segment = segment;
+		this.pointer = pointer;
+	}
+
+	/*
+	 * Allocates the pointer word an orphan in `arena` points through.
+	 */
+	static <T> Orphan<T> allocate(FromPointerBuilder<T> factory, BuilderArena arena) {
+		if (arena.segments.isEmpty()) { throw new Error("message builder has been closed"); }
+		SegmentBuilder rootSegment = arena.segments.get(0);
+		if (rootSegment.currentSize() == 0) {
+			// the first word of the message is reserved for the root pointer
+			rootSegment.allocate(Constants.POINTER_SIZE_IN_WORDS);
+		}
+		SegmentBuilder segment = arena.allocateWords(Constants.POINTER_SIZE_IN_WORDS);
+		return new Orphan<T>(factory, segment, segment.pos - Constants.POINTER_SIZE_IN_WORDS);
+	}
+
+	/*
+	 * Detaches the object `pointer` points to and leaves `pointer` null.
+	 */
+	static <T> Orphan<T> disown(FromPointerBuilder<T> factory, SegmentBuilder segment, int pointer) {
+		Orphan<T> result = allocate(factory, segment.getArena());
+		WireHelpers.transferPointer(result.segment, result.pointer, segment, pointer);
+		segment.put(pointer, 0L);
+		return result;
+	}
+
+	/*
+	 * Makes `pointer` point to this orphan's object, discarding whatever it pointed to before.
+	 */
+	final void adoptInto(SegmentBuilder segment, int pointer) {
+		this.checkNotAdopted();
+		if (this.segment.getArena() != segment.getArena()) { throw new Error(
+				"orphan can only be adopted into the message it belongs to"); }
+		WireHelpers.zeroObject(segment, pointer);
+		WireHelpers.transferPointer(segment, pointer, this.segment, this.pointer);
+		this.segment.put(this.pointer, 0L);
+		this.segment = null;
+	}
+
+	private void checkNotAdopted() {
+		if (this.segment == null) { throw new Error("orphan has already been adopted"); }
+	}
+
+	public final T get() {
+		this.checkNotAdopted();
+		return this.factory.fromPointerBuilder(this.segment, this.pointer);
+	}
+
+	public final <U> U getAsReader(FromPointerReader<U> factory) {
+		this.checkNotAdopted();
+		return factory.fromPointerReader(this.segment, this.pointer, 0x7fffffff);
+	}
+
+	public final boolean isNull() {
+		this.checkNotAdopted();
+		return WirePointer.isNull(this.segment.get(this.pointer));
+	}
+}
@@ -0,0 +1,51 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+/*
+ * Creates objects in a message without attaching them anywhere yet, so that parts of a
+ * message can be built in any order and adopted into place later.
+ */
+public final class Orphanage {
+
+	private final BuilderArena arena;
+
+	Orphanage(BuilderArena arena) {
+		this.arena = arena;
+	}
+
+	/*
+	 * A new struct, or empty list or blob, of the type `factory` builds.
+	 */
+	public final <T> Orphan<T> newOrphan(FromPointerBuilder<T> factory) {
+		return this.newOrphan(factory, 0);
+	}
+
+	/*
+	 * A new list or blob with `elementCount` elements.
+	 */
+	public final <T> Orphan<T> newOrphan(FromPointerBuilder<T> factory, int elementCount) {
+		Orphan<T> result = Orphan.allocate(factory, this.arena);
+		factory.initFromPointerBuilder(result.segment, result.pointer, elementCount);
+		return result;
+	}
+}
@@ -23,6 +23,7 @@ package org.capnproto;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ReadableByteChannel;
 
 
@@ -30,6 +31,9 @@ public final class PackedInputStream implements ReadableByteChannel {
 
 	final BufferedInputStream inner;
 
+	// the inner stream's buffer, as of the last refill
+	private ByteBuffer inBuf;
+
 	public PackedInputStream(BufferedInputStream input) {
 		this.inner = input;
 	}
@@ -37,155 +41,83 @@ public final class PackedInputStream implements ReadableByteChannel {
 	public int read(ByteBuffer outBuf) throws IOException {
 		// -> see CapnProto - packed encoding
 
-		// number of free bytes left on the byte buffer to be read on
 		int len = outBuf.remaining();
-		// if there is no more space left, return that 0 bytes were written
 		if (len == 0) { return 0; }
 
-		// if an unusual number of bytes is left on the bytebuffer, means a number of bytes, which can't be aligned to word boundaries 
-		// -> makes sure, that the output of this method is aligned to word boundaries
+		// the packed encoding works on whole words
 		if (len % Constants.BYTES_PER_WORD != 0) { throw new Error("PackedInputStream reads must be word-aligned"); }
 
-		// position of the next free byte of the output buffer
+		// words are assembled as little-endian longs
+		boolean swap = outBuf.order() != ByteOrder.LITTLE_ENDIAN;
 		int outPtr = outBuf.position();
-		// position of the last free byte of the output buffer
 		int outEnd = outPtr + len;
-		// gets the buffer of this InputStream, means the buffered bytes of the actual input
-		ByteBuffer inBuf = this.inner.getReadBuffer();
-
-		while (true) {
-
-			byte tag = 0;
-
-			if (inBuf.remaining() < 10) {
-				// If there are less than 10 bytes remaining in the Input buffer, probably the last word
-				if (outBuf.remaining() == 0) { return len; }
-				// if there is no more space in the output buffer, return the number of read bytes
-
-				if (inBuf.remaining() == 0) {
-					// if the buffer of the input channel is full read, it will be cleared and filled with new bytes from the channel
-					inBuf = this.inner.getReadBuffer();
-					continue;
+		this.inBuf = this.inner.getReadBuffer();
+
+		while (outPtr < outEnd) {
+			int tag;
+			long word = 0;
+
+			if (this.inBuf.remaining() >= 10) {
+				//# The tag, up to 8 bytes and a run length are all at hand, so the word can be
+				//# put together without any bounds checks or branches on its bytes.
+				int inPtr = this.inBuf.position();
+				tag = this.inBuf.get(inPtr++) & 0xff;
+				for (int ii = 0; ii < Constants.BYTES_PER_WORD; ++ii) {
+					long present = (tag >>> ii) & 1;
+					word |= (this.inBuf.get(inPtr) & 0xffL & -present) << (ii * Constants.BITS_PER_BYTE);
+					inPtr += (int) present;
 				}
-
+				this.inBuf.position(inPtr);
+			} else {
 				//# We have at least 1, but not 10, bytes available. We need to read
 				//# slowly, doing a bounds check on each byte.
-
-				// gets the Tag of the next word
-				tag = inBuf.get();
-
-				for (int i = 0; i < Constants.BITS_PER_BYTE; ++i) {
-					/*
-					 * Iterates through the tag byte and checks, which bits are set.
-					 * If it is set:
-					 * ___If there are no bytes left to read from the input buffer,
-					 * ___it will be filled wit new bytes from the channel.
-					 * ___The next byte of the input buffer is written to the output buffer.
-					 * If it isn't set:
-					 * ___A zero-byte is written to the output buffer.
-					 */
-					if ((tag & (1 << i)) != 0) {
-						if (inBuf.remaining() == 0) {
-							inBuf = this.inner.getReadBuffer();
-						}
-						outBuf.put(inBuf.get());
-					} else {
-						outBuf.put((byte) 0);
-					}
-				}
-
-				if (inBuf.remaining() == 0 && (tag == 0 || tag == (byte) 0xff)) {
-					/*
-					 * If the input buffer is all read, but the previous tag is one of the special
-					 * ones (indicating, that there must be more information on the channel).
-					 * Then the input buffer is filled with new bytes from input channel.
-					 */
-					inBuf = this.inner.getReadBuffer();
-				}
-			} else {
-				// If there are more than 10 bytes available to read from the BufferedInput,
-				// it reads the next byte as a Tag-byte(see description of Capnp).			
-				tag = inBuf.get();
-				for (int n = 0; n < Constants.BITS_PER_BYTE; ++n) {
-					/*
-					 * Iterates through the tag byte and checks, which bits are set.
-					 * The '1<<n' shifts the 1 through an 8Bit blob and checks, if that specific bit
-					 * in the tag is set or not.
-					 * If it is set:
-					 * ___It writes the next byte from the input buffer to the output buffer
-					 * If it isn't set:
-					 * ___A zero-byte is written to the output buffer.
-					 */
-					if ((tag & (1 << n)) != 0) {
-						outBuf.put(inBuf.get());
-					} else {
-						outBuf.put((byte) 0);
+				tag = nextByte();
+				for (int ii = 0; ii < Constants.BYTES_PER_WORD; ++ii) {
+					if ((tag & (1 << ii)) != 0) {
+						word |= (long) nextByte() << (ii * Constants.BITS_PER_BYTE);
 					}
 				}
 			}
 
-			// checks, if the read tag is the special zero-tag
+			outBuf.putLong(outPtr, swap ? Long.reverseBytes(word) : word);
+			outPtr += Constants.BYTES_PER_WORD;
+
 			if (tag == 0) {
-				// at this point, the input must always contain more information, because of the capnp packing-description
-				if (inBuf.remaining() == 0) { throw new Error("Should always have non-empty buffer here."); }
-				// checks, how many zero-words will follow the 00-tag, from the byte right after the tag
-				int runLength = inBuf.get() * Constants.BYTES_PER_WORD;
-				// if there are more zero-words to be written than there is space in the output buffer
+				// a zero word is followed by the number of zero words after it
+				int runLength = nextByte() * Constants.BYTES_PER_WORD;
 				if (runLength > outEnd - outPtr) { throw new Error("Packed input did not end cleanly on a segment boundary"); }
+				WireHelpers.memset(outBuf, outPtr, (byte) 0, runLength);
+				outPtr += runLength;
 
-				// writes the given number of zero-words to the output buffer
-				for (int i = 0; i < runLength; ++i) {
-					outBuf.put((byte) 0);
-				}
-				// checks, if the read tag is the special ff-tag
-			} else if (tag == (byte) 0xff) {
-
-				// checks how many words, following this tag should be interpreted as unpacked
-				int runLength = inBuf.get() * Constants.BYTES_PER_WORD;
-
-				if (inBuf.remaining() >= runLength) {
-					/*
-					 * #FastPath
-					 * If there are more words to be written, than the unpacked ones,
-					 * it writes the next number of bytes(specified by runLength) straight to the
-					 * output buffer.
-					 */
-					WireHelpers.writeSlice(inBuf, runLength, outBuf);
-					inBuf.position(inBuf.position() + runLength);
-				} else {
-					/*
-					 * # Copy over the first buffer, then do one big read for the rest.
-					 * If there are more unpacked words, than words remaining in this input buffer.
-					 * First it checks, how many unpacked words are saved in the current input
-					 * buffer and writes these words to the output buffer.
-					 * Then it creates a slice of the output buffer, sets it limit to the number of
-					 * unpacked words left and
-					 * reads the rest of the unpacked words form the input stream to the slice
-					 * buffer, whose content is shared with the output buffer
-					 * Finally it updates the position of the output buffer.
-					 */
-					runLength -= inBuf.remaining();
-					outBuf.put(inBuf);
-
-					ByteBuffer slice = outBuf.slice();
-					slice.limit(runLength);
-
-					this.inner.read(slice);
-					outBuf.position(outBuf.position() + runLength);
-
-					if (outBuf.remaining() == 0) {
-						// if there is no more space left on the output buffer, return the number of written bytes
-						return len;
-					} else {
-						// if there is still space left, read new bytes from the channel to the input buffer
-						inBuf = this.inner.getReadBuffer();
-						continue;
-					}
+			} else if (tag == 0xff) {
+				// a word without zero bytes is followed by a number of words to copy as they are
+				int runLength = nextByte() * Constants.BYTES_PER_WORD;
+				if (runLength > outEnd - outPtr) { throw new Error("Packed input did not end cleanly on a segment boundary"); }
+
+				ByteBuffer run = outBuf.duplicate();
+				run.limit(outPtr + runLength);
+				run.position(outPtr);
+				int fromBuffer = Math.min(runLength, this.inBuf.remaining());
+				WireHelpers.writeSlice(this.inBuf, fromBuffer, run);
+				this.inBuf.position(this.inBuf.position() + fromBuffer);
+				while (run.hasRemaining()) {
+					//# Copy over the first buffer, then do one big read for the rest.
+					if (this.inner.read(run) <= 0) { throw new IOException("premature EOF"); }
 				}
+				outPtr += runLength;
 			}
-			// if there is no more space left on the output buffer, return the number of written bytes
-			if (outBuf.remaining() == 0) { return len; }
 		}
+
+		outBuf.position(outEnd);
+		return len;
+	}
+
+	private int nextByte() throws IOException {
+		if (!this.inBuf.hasRemaining()) {
+			this.inBuf = this.inner.getReadBuffer();
+			if (!this.inBuf.hasRemaining()) { throw new IOException("premature EOF"); }
+		}
+		return this.inBuf.get() & 0xff;
 	}
 
 	public void close() throws IOException {
@@ -23,6 +23,7 @@ package org.capnproto;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.WritableByteChannel;
 
 
@@ -30,107 +31,132 @@ public final class PackedOutputStream implements WritableByteChannel {
 
 	final BufferedOutputStream inner;
 
+	// takes the output whenever fewer than 10 bytes are left in the inner stream's buffer
+	private final ByteBuffer slowBuffer = ByteBuffer.allocate(20);
+
 	public PackedOutputStream(BufferedOutputStream output) {
 		this.inner = output;
 	}
 
-	public int write(ByteBuffer inBuf) throws IOException {
-		// packs bytes from a byte buffer and writes it to an output stream
-		// gets the number of bytes remaining in the buffer to write from
-		int length = inBuf.remaining();
-		// creates a new buffer for output
-		ByteBuffer out = this.inner.getWriteBuffer();
+	/*
+	 * Sets the high bit of every byte of `word` that is not zero, and clears everything else.
+	 */
+	static long nonZeroBytes(long word) {
+		long low = (word & 0x7f7f7f7f7f7f7f7fL) + 0x7f7f7f7f7f7f7f7fL;
+		return (low | word) & 0x8080808080808080L;
+	}
 
-		// creates a new buffer with at most 20 bytes
-		ByteBuffer slowBuffer = ByteBuffer.allocate(20);
+	/*
+	 * The packed tag of a word: bit n is set when byte n is not zero.
+	 */
+	static int tag(long nonZeroBytes) {
+		// moves the high bit of byte n to bit 56 + n; no two bits collide, so nothing carries
+		return (int) (((nonZeroBytes >>> 7) * 0x0102040810204080L) >>> 56);
+	}
 
-		// gets the number of the next byte to be written
+	/*
+	 * The number of bytes write(inBuf) would produce for the words between the position and the
+	 * limit of `inBuf`, without writing anything.
+	 */
+	static long packedSize(ByteBuffer inBuf) {
 		int inPtr = inBuf.position();
-		// gets the number of the last byte to be written
-		int inEnd = inPtr + length;
+		int inEnd = inBuf.limit();
+		long bytes = 0;
 
 		while (inPtr < inEnd) {
-			// while there are still some bytes remaining in the input buffer
+			long nonZero = nonZeroBytes(inBuf.getLong(inPtr));
+			inPtr += Constants.BYTES_PER_WORD;
+			int limit = Math.min(inEnd, inPtr + 255 * Constants.BYTES_PER_WORD);
+
+			if (nonZero == 0) {
+				// the tag and the run length; the zero words after it take no space
+				bytes += 2;
+				while (inPtr < limit && inBuf.getLong(inPtr) == 0) {
+					inPtr += Constants.BYTES_PER_WORD;
+				}
+			} else if (nonZero == 0x8080808080808080L) {
+				// the tag, the word and the run length, then the run as it is
+				int runStart = inPtr;
+				while (inPtr < limit && Long.bitCount(nonZeroBytes(inBuf.getLong(inPtr))) >= 7) {
+					inPtr += Constants.BYTES_PER_WORD;
+				}
+				bytes += 10 + (inPtr - runStart);
+			} else {
+				bytes += 1 + Long.bitCount(nonZero);
+			}
+		}
+		return bytes;
+	}
+
+	/*
+	 * The offset of the first word at or after `from` where the packing of `inBuf` is sure to
+	 * start a new tag, or the limit if there is none. A word with between one and six nonzero
+	 * bytes can neither continue a zero run nor a run of uncompressed words, so packing from it
+	 * onwards gives the same bytes whatever came before.
+	 */
+	static int nextTagBoundary(ByteBuffer inBuf, int from) {
+		int inEnd = inBuf.limit();
+		for (int inPtr = from; inPtr < inEnd; inPtr += Constants.BYTES_PER_WORD) {
+			int nonZeroCount = Long.bitCount(nonZeroBytes(inBuf.getLong(inPtr)));
+			if (nonZeroCount > 0 && nonZeroCount < 7) { return inPtr; }
+		}
+		return inEnd;
+	}
 
+	public int write(ByteBuffer inBuf) throws IOException {
+		// the input is whole words; each is read as a little-endian long
+		int length = inBuf.remaining();
+		boolean swap = inBuf.order() != ByteOrder.LITTLE_ENDIAN;
+		int inPtr = inBuf.position();
+		int inEnd = inPtr + length;
+
+		ByteBuffer out = this.inner.getWriteBuffer();
+
+		while (inPtr < inEnd) {
 			if (out.remaining() < 10) {
-				// if there are less than 10 bytes left in the output buffer
 				//# Oops, we're out of space. We need at least 10
 				//# bytes for the fast path, since we don't
 				//# bounds-check on every byte.
-				if (out == slowBuffer) {
-					int oldLimit = out.limit();
-					out.limit(out.position());
-					out.rewind();
-					this.inner.write(out);
-					out.limit(oldLimit);
+				if (out == this.slowBuffer) {
+					flushSlowBuffer();
 				}
-
-				out = slowBuffer;
-				out.rewind();
-			}
-
-			// sets the position of the tag word used in packed format
-			int tagPos = out.position();
-			// sets the position of the output buffer behind the tag word
-			out.position(tagPos + 1);
-
-			// the final tag
-			byte tag = 0;
-			// a bit of the tag
-			byte signalBit = 0;
-			// the current, to be zero-checked byte
-			byte curByte;
-
-			for (int ii = 0; ii < Constants.BITS_PER_BYTE; ++ii) {
-				/*
-				 * This loop iterates through the next 8 bytes.
-				 * First it reads the next byte from the input buffer and
-				 * resets the signal bit for the current byte to zero.
-				 * If the current byte is nonzero, it sets the signalBit to 1 and
-				 * writes the current byte to the output buffer.
-				 * If the current byte is zero, nothing happens.
-				 * Finally the input pointer is incremented to jump to the next byte and
-				 * the tag is updated with the shifted signalBit.
-				 */
-				curByte = inBuf.get(inPtr);
-				signalBit = 0;
-				if (curByte != 0) {
-					signalBit = 1;
-					out.put(curByte);
+				out = this.inner.getWriteBuffer();
+				if (out.remaining() < 10) {
+					out = this.slowBuffer;
+					out.clear();
 				}
-				inPtr++;
-				tag = (byte) (tag | (signalBit << ii));
 			}
 
-			//puts the tag at the reserved position
-			out.put(tagPos, tag);
+			long word = inBuf.getLong(inPtr);
+			if (swap) {
+				word = Long.reverseBytes(word);
+			}
+			inPtr += Constants.BYTES_PER_WORD;
+
+			int tag = tag(nonZeroBytes(word));
+			int outPtr = out.position();
+			out.put(outPtr++, (byte) tag);
+			// every byte is stored, but only the nonzero ones move the output on; the stray zeros
+			// land in free space that the next word overwrites
+			for (int ii = 0; ii < Constants.BYTES_PER_WORD; ++ii) {
+				byte b = (byte) (word >>> (ii * Constants.BITS_PER_BYTE));
+				out.put(outPtr, b);
+				outPtr += (tag >>> ii) & 1;
+			}
 
 			if (tag == 0) {
-				// if the tag is the special 0x00 tag
 				//# An all-zero word is followed by a count of
 				//# consecutive zero words (not including the first
 				//# one).
+				int limit = Math.min(inEnd, inPtr + 255 * Constants.BYTES_PER_WORD);
 				int runStart = inPtr;
-				int limit = inEnd;
-				/*
-				 * If there are more than 8 bytes to write from the input buffer,
-				 * the write limit is set to 8 bytes; because of the special packed encoding,
-				 * a maximum of 8 zero words can follow the zero tag.
-				 */
-				if (limit - inPtr > 255 * Constants.BYTES_PER_WORD) {
-					limit = inPtr + 255 * Constants.BYTES_PER_WORD;
-				}
-
 				while (inPtr < limit && inBuf.getLong(inPtr) == 0) {
-					// jumps over the next zero words, with a maximum of 8 zero words
 					inPtr += Constants.BYTES_PER_WORD;
 				}
+				out.put(outPtr++, (byte) ((inPtr - runStart) / Constants.BYTES_PER_WORD));
+				out.position(outPtr);
 
-				// calculates the number of zero words, that were jumped over and puts it behind the zero tag 
-				out.put((byte) ((inPtr - runStart) / Constants.BYTES_PER_WORD));
-
-			} else if (tag == (byte) 0xff) {
-				// if the tag is the special 0xff tag
+			} else if (tag == 0xff) {
 				//# An all-nonzero word is followed by a count of
 				//# consecutive uncompressed words, followed by the
 				//# uncompressed words themselves.
@@ -139,96 +165,55 @@ public final class PackedOutputStream implements WritableByteChannel {
 				//# which have no more than a single zero-byte. We look
 				//# for at least two zeros because that's the point
 				//# where our compression scheme becomes a net win.
-
+				int limit = Math.min(inEnd, inPtr + 255 * Constants.BYTES_PER_WORD);
 				int runStart = inPtr;
-				int limit = inEnd;
-
-				/*
-				 * If there are more than 8 bytes to write from the input buffer,
-				 * the write limit is set to 8 bytes, which could be copied directly to the output
-				 */
-				if (limit - inPtr > 255 * Constants.BYTES_PER_WORD) {
-					limit = inPtr + 255 * Constants.BYTES_PER_WORD;
-				}
-
-				while (inPtr < limit) {
-					// iterates through the words from the beginning of the buffer to its limit
-					byte c = 0;
-					for (int ii = 0; ii < Constants.BYTES_PER_WORD; ++ii) {
-						// iterates through the word and checks, if there are at least 2 zero bytes					
-						c += (inBuf.get(inPtr) == 0 ? 1 : 0);
-						inPtr++;
-					}
-					if (c >= 2) {
-						// if there are at least two zero bytes in this word, we leave the loop and 
-						// un-read the word, since we'll want to compress that one.
-						inPtr -= Constants.BYTES_PER_WORD;
-						break;
-					}
+				while (inPtr < limit && Long.bitCount(nonZeroBytes(inBuf.getLong(inPtr))) >= 7) {
+					inPtr += Constants.BYTES_PER_WORD;
 				}
-
-				// calculates the number of words which should not be compressed
 				int count = inPtr - runStart;
-				// puts that number behind the 0xff tag
-				out.put((byte) (count / Constants.BYTES_PER_WORD));
+				out.put(outPtr++, (byte) (count / Constants.BYTES_PER_WORD));
+				out.position(outPtr);
 
+				ByteBuffer run = inBuf.duplicate();
+				run.limit(inPtr);
+				run.position(runStart);
 				if (count <= out.remaining()) {
-
-					/*
-					 * # There's enough space to memcpy.
-					 * If there is at least as much space left on the output buffer as the number of
-					 * uncompressed words,
-					 * it copies the calculated number of words from the input buffer directly to
-					 * the output buffer.
-					 */
-					inBuf.position(runStart);
-					WireHelpers.writeSlice(inBuf, count, out);
+					//# There's enough space to memcpy.
+					out.put(run);
 				} else {
-					// if there is not enough space left in the output buffer to take all the uncompressed words
 					//# Input overruns the output buffer. We'll give it
 					//# to the output stream in one chunk and let it
 					//# decide what to do.
-
-					if (out == slowBuffer) {// no idea																	
-						// save the current limit of the buffer
-						int oldLimit = out.limit();
-						out.limit(out.position());
-						out.rewind();
-						// writes the bytes that are already in the buffer to the output stream
-						this.inner.write(out);
-						// after that, we set the limit of the buffer back to the old one
-						out.limit(oldLimit);
+					if (out == this.slowBuffer) {
+						flushSlowBuffer();
 					}
-
-					// because there is no more space left in the output buffer
-					inBuf.position(runStart);
-					ByteBuffer slice = inBuf.slice();
-					slice.limit(count);
-					while (slice.hasRemaining()) {
-						// we write the uncompressed words directly to the output stream
-						this.inner.write(slice);
+					while (run.hasRemaining()) {
+						this.inner.write(run);
 					}
-
-					// fill the output buffer with new bytes
 					out = this.inner.getWriteBuffer();
 				}
+
+			} else {
+				out.position(outPtr);
 			}
 		}
 
-		if (out == slowBuffer) {// no idea		
-			// if there are finally no more bytes left on the input stream 
-			// write the rest of the buffered bytes to the output stream
-			out.limit(out.position());
-			out.rewind();
-			this.inner.write(out);
+		if (out == this.slowBuffer) {
+			flushSlowBuffer();
 		}
 
-		// sets the position of the input buffer to the next to be written byte
 		inBuf.position(inPtr);
-		// returns the number of written bytes
 		return length;
 	}
 
+	private void flushSlowBuffer() throws IOException {
+		this.slowBuffer.flip();
+		while (this.slowBuffer.hasRemaining()) {
+			this.inner.write(this.slowBuffer);
+		}
+		this.slowBuffer.clear();
+	}
+
 	public void close() throws IOException {
 		this.inner.close();
 	}
@@ -0,0 +1,129 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Keeps released segments and hands them out again instead of allocating new ones.
+ *
+ * Segments are rounded up to a power of two words and pooled per size class, so a request is
+ * served by any released segment of its class. At most `maxPooledBytes` are retained; beyond
+ * that released segments go back to the backing allocator. A pool is not thread-safe and
+ * should be confined to one thread, for example one per connection.
+ */
+public final class PooledAllocator implements Allocator {
+
+	// size classes run from 2^0 to 2^(SIZE_CLASSES - 1) words
+	static final int SIZE_CLASSES = 28;
+
+	private final Allocator backing;
+	private final long maxPooledBytes;
+	private final ArrayList<ArrayList<ByteBuffer>> pools;
+	private long pooledBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	// a budget shared with the pools of other threads, see ThreadLocalAllocator
+	private final AtomicLong sharedPooledBytes;
+	private final long maxSharedPooledBytes;
+
+	public PooledAllocator(Allocator backing, long maxPooledBytes) {
+		this(backing, maxPooledBytes, null, 0);
+	}
+
+	PooledAllocator(Allocator backing, long maxPooledBytes, AtomicLong sharedPooledBytes, long maxSharedPooledBytes) {
+		this.backing = backing;
+		this.maxPooledBytes = maxPooledBytes;
+		this.sharedPooledBytes = sharedPooledBytes;
+		this.maxSharedPooledBytes = maxSharedPooledBytes;
+		this.pools = new ArrayList<ArrayList<ByteBuffer>>(SIZE_CLASSES);
+		for (int ii = 0; ii < SIZE_CLASSES; ++ii) {
+			this.pools.add(new ArrayList<ByteBuffer>());
+		}
+	}
+
+	static int sizeClass(int words) {
+		return words <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(words - 1);
+	}
+
+	public final ByteBuffer allocateSegment(int minimumWords) {
+		int sizeClass = sizeClass(minimumWords);
+		if (sizeClass >= SIZE_CLASSES) {
+			++this.misses;
+			return this.backing.allocateSegment(minimumWords);
+		}
+
+		ArrayList<ByteBuffer> pool = this.pools.get(sizeClass);
+		if (!pool.isEmpty()) {
+			ByteBuffer segment = pool.remove(pool.size() - 1);
+			this.pooledBytes -= segment.capacity();
+			if (this.sharedPooledBytes != null) {
+				this.sharedPooledBytes.addAndGet(-segment.capacity());
+			}
+			++this.hits;
+			return segment;
+		}
+		++this.misses;
+		return this.backing.allocateSegment(1 << sizeClass);
+	}
+
+	public final void releaseSegment(ByteBuffer segment) {
+		int words = segment.capacity() / Constants.BYTES_PER_WORD;
+		int sizeClass = sizeClass(words);
+		// only segments that came out of this pool have an exact power-of-two size
+		if (sizeClass >= SIZE_CLASSES || words != 1 << sizeClass
+				|| this.pooledBytes + segment.capacity() > this.maxPooledBytes) {
+			this.backing.releaseSegment(segment);
+			return;
+		}
+		if (this.sharedPooledBytes != null
+				&& this.sharedPooledBytes.addAndGet(segment.capacity()) > this.maxSharedPooledBytes) {
+			this.sharedPooledBytes.addAndGet(-segment.capacity());
+			this.backing.releaseSegment(segment);
+			return;
+		}
+		segment.clear();
+		this.pools.get(sizeClass).add(segment);
+		this.pooledBytes += segment.capacity();
+	}
+
+	public final boolean reusesSegments() {
+		return true;
+	}
+
+	public final long pooledBytes() {
+		return this.pooledBytes;
+	}
+
+	// number of allocations served from the pool
+	public final long hits() {
+		return this.hits;
+	}
+
+	// number of allocations passed on to the backing allocator
+	public final long misses() {
+		return this.misses;
+	}
+}
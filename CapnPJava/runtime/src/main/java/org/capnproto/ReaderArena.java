@@ -21,16 +21,29 @@
 
 package org.capnproto;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 public final class ReaderArena implements Arena {
 
-	public long limit;
-	// current limit
+	// current limit, shared by every thread reading the message
+	public volatile long limit;
+	private static final AtomicLongFieldUpdater<ReaderArena> LIMIT =
+			AtomicLongFieldUpdater.newUpdater(ReaderArena.class, "limit");
+	// cleared for trusted input, which is read without traversal-limit accounting; a thread that
+	// sees the change late merely keeps accounting for a while
+	boolean checkLimit = true;
 
-	public final ArrayList<SegmentReader> segments;
+	// the segments of a message read up front; null with a loader
+	private final ArrayList<SegmentReader> segments;
+	private final SegmentLoader loader;
+	// with a loader, the segments loaded so far, null until then
+	private final AtomicReferenceArray<SegmentReader> loaded;
 
 	public ReaderArena(ByteBuffer[] segmentSlices, long traversalLimitInWords) {
 		this.limit = traversalLimitInWords;
@@ -38,17 +51,64 @@ public final class ReaderArena implements Arena {
 		for (int ii = 0; ii < segmentSlices.length; ++ii) {
 			this.segments.add(new SegmentReader(segmentSlices[ii], this));
 		}
+		this.loader = null;
+		this.loaded = null;
 	}
 
+	/*
+	 * An arena whose segments are loaded the first time they are looked up, so reading a few
+	 * fields of a huge message only fetches the segments those fields live in.
+	 */
+	public ReaderArena(int segmentCount, SegmentLoader loader, long traversalLimitInWords) {
+		this.limit = traversalLimitInWords;
+		this.segments = null;
+		this.loader = loader;
+		this.loaded = new AtomicReferenceArray<SegmentReader>(segmentCount);
+	}
+
+	public final int segmentCount() {
+		return this.loader == null ? this.segments.size() : this.loaded.length();
+	}
+
+	/*
+	 * Loads the segment first if the arena has a loader, and throws a DecodeException whose cause
+	 * is the IOException if that fails.
+	 */
 	public SegmentReader tryGetSegment(int id) {
-		return segments.get(id);
+		if (this.loader == null) {
+			return segments.get(id);
+		}
+		SegmentReader segment = this.loaded.get(id);
+		if (segment == null) {
+			segment = this.loadSegment(id);
+		}
+		return segment;
 	}
 
-	public final void checkReadLimit(int numBytes) {
-		if (numBytes > limit) {
-			throw new DecodeException("Read limit exceeded.");
-		} else {
-			limit -= numBytes;
+	// one load at a time, so that threads racing for a segment share a single copy of it
+	private synchronized SegmentReader loadSegment(int id) {
+		SegmentReader segment = this.loaded.get(id);
+		if (segment != null) { return segment; }
+
+		ByteBuffer buffer;
+		try {
+			buffer = this.loader.loadSegment(id);
+		} catch (IOException e) {
+			throw new DecodeException("could not load segment " + id, e);
 		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		segment = new SegmentReader(buffer, this);
+		this.loaded.set(id, segment);
+		return segment;
+	}
+
+	public final void checkReadLimit(int numBytes) {
+		if (!this.checkLimit) { return; }
+		// only take what is left, so a read that overshoots never makes one that fits fail
+		long current;
+		do {
+			current = this.limit;
+			if (numBytes > current) { throw new DecodeException("Read limit exceeded."); }
+		} while (!LIMIT.compareAndSet(this, current, current - numBytes));
 	}
 }
@@ -25,10 +25,17 @@ public final class ReaderOptions {
 
 	public final long traversalLimitInWords;
 	public final int nestingLimit;
+	// false skips traversal-limit accounting; only for input that is known to be well-formed
+	public final boolean checkTraversalLimit;
 
 	public ReaderOptions(long traversalLimitInWords, int nestingLimit) {
+		this(traversalLimitInWords, nestingLimit, true);
+	}
+
+	public ReaderOptions(long traversalLimitInWords, int nestingLimit, boolean checkTraversalLimit) {
 		this.traversalLimitInWords = traversalLimitInWords;
 		this.nestingLimit = nestingLimit;
+		this.checkTraversalLimit = checkTraversalLimit;
 	}
 
 	final static long DEFAULT_TRAVERSAL_LIMIT_IN_WORDS = 8 * 1024 * 1024; // 1024 should equal 10 bit of indizes
@@ -36,4 +43,10 @@ public final class ReaderOptions {
 
 	public static final ReaderOptions DEFAULT_READER_OPTIONS = new ReaderOptions(DEFAULT_TRAVERSAL_LIMIT_IN_WORDS,
 			DEFAULT_NESTING_LIMIT);
+
+	/*
+	 * For messages this process produced itself, or that MessageReader.validate() has accepted.
+	 */
+	public static final ReaderOptions TRUSTED_READER_OPTIONS = new ReaderOptions(DEFAULT_TRAVERSAL_LIMIT_IN_WORDS,
+			DEFAULT_NESTING_LIMIT, false);
 }
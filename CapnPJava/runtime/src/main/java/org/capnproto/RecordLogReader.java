@@ -0,0 +1,183 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/*
+ * Reads the records of a log written by RecordLogWriter, or any file of back-to-back messages,
+ * straight out of a memory mapping. Records can be read by number or in order with next(),
+ * which also follows a log that is still being appended to.
+ */
+public final class RecordLogReader implements AutoCloseable {
+
+	// a mapping of the consecutive records from `firstRecord` on
+	static final class Mapping {
+
+		final ByteBuffer buffer;
+		final long offset;
+		final int firstRecord;
+
+		Mapping(ByteBuffer buffer, long offset, int firstRecord) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.firstRecord = firstRecord;
+		}
+	}
+
+	/*
+	 * New records are mapped on their own, so records already mapped are never mapped again.
+	 * While the last mapping is smaller than this, it is replaced by one that also covers the new
+	 * records, so tailing a log one record at a time does not leave a mapping per record.
+	 */
+	static final int MIN_MAPPING_BYTES = 1 << 20;
+
+	private final FileChannel channel;
+	private final ReaderOptions options;
+	private final MessageIndex index;
+	// cover the records found so far, in order; null where a record is larger than a buffer can be
+	final ArrayList<Mapping> mappings = new ArrayList<Mapping>();
+	private int mappedRecords = 0;
+	private int nextRecord;
+
+	public static RecordLogReader open(Path path) throws IOException {
+		return new RecordLogReader(FileChannel.open(path, StandardOpenOption.READ), ReaderOptions.DEFAULT_READER_OPTIONS);
+	}
+
+	/*
+	 * The reader owns `channel` from here on and closes it.
+	 */
+	public RecordLogReader(FileChannel channel, ReaderOptions options) throws IOException {
+		this.channel = channel;
+		this.options = options;
+		this.index = MessageIndex.scan(channel);
+		remap();
+	}
+
+	/*
+	 * Picks up records appended since the last refresh and returns how many there were.
+	 */
+	public int refresh() throws IOException {
+		int added = this.index.update(this.channel);
+		if (added > 0) {
+			remap();
+		}
+		return added;
+	}
+
+	private void remap() throws IOException {
+		int records = this.index.size();
+		int first = this.mappedRecords;
+		if (first == records) { return; }
+		int last = this.mappings.size() - 1;
+		if (last >= 0 && this.mappings.get(last).buffer != null
+				&& this.mappings.get(last).buffer.capacity() < MIN_MAPPING_BYTES) {
+			first = this.mappings.remove(last).firstRecord;
+		}
+
+		while (first < records) {
+			long start = this.index.offset(first);
+			int next = first + 1;
+			while (next < records && this.index.offset(next) + this.index.length(next) - start <= Integer.MAX_VALUE) {
+				++next;
+			}
+			long size = this.index.offset(next - 1) + this.index.length(next - 1) - start;
+			ByteBuffer buffer = size <= Integer.MAX_VALUE ? this.channel.map(FileChannel.MapMode.READ_ONLY, start, size) : null;
+			this.mappings.add(new Mapping(buffer, start, first));
+			first = next;
+		}
+		this.mappedRecords = records;
+	}
+
+	// the mapping that covers record `n`
+	private Mapping mapping(int n) {
+		int low = 0;
+		int high = this.mappings.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (this.mappings.get(mid).firstRecord <= n) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return this.mappings.get(low);
+	}
+
+	/*
+	 * The number of records found so far.
+	 */
+	public int size() {
+		return this.index.size();
+	}
+
+	/*
+	 * The offset of record `n` in the file.
+	 */
+	public long offset(int n) {
+		return this.index.offset(n);
+	}
+
+	/*
+	 * Returns record `n`. The message is a view of the mapping and is not copied.
+	 */
+	public MessageReader get(int n) throws IOException {
+		if (n < 0 || n >= size()) { throw new IndexOutOfBoundsException("record " + n + " of " + size()); }
+		Mapping mapping = mapping(n);
+		if (mapping.buffer == null) {
+			return this.index.read(this.channel, n, this.options);
+		}
+		int position = (int) (this.index.offset(n) - mapping.offset);
+		ByteBuffer record = mapping.buffer.duplicate();
+		record.limit(position + (int) this.index.length(n));
+		record.position(position);
+		return Serialize.read(record, this.options);
+	}
+
+	/*
+	 * Returns the record after the one returned last time, or null if there is none yet. When
+	 * the records found so far are used up, checks the file for new ones, so calling this in a
+	 * loop tails a log that is still being written.
+	 */
+	public MessageReader next() throws IOException {
+		if (this.nextRecord == size() && refresh() == 0) { return null; }
+		return get(this.nextRecord++);
+	}
+
+	/*
+	 * Makes next() continue from record `n`.
+	 */
+	public void seek(int n) {
+		if (n < 0 || n > size()) { throw new IndexOutOfBoundsException("record " + n + " of " + size()); }
+		this.nextRecord = n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.mappings.clear();
+		this.channel.close();
+	}
+}
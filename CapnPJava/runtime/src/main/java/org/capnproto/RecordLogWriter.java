@@ -0,0 +1,185 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/*
+ * Appends messages to a record log: a file of back-to-back messages in the standard stream
+ * format, readable with Serialize.read(), MessageIndex or RecordLogReader.
+ *
+ * Appended messages are batched and written by commit(), which may be called from several
+ * threads at once. While one thread is writing, the others keep appending, and the next commit
+ * writes everything they added with one gathering write and at most one sync. append() copies
+ * the message, so its builder can be reset or changed as soon as append() returns.
+ */
+public final class RecordLogWriter implements AutoCloseable {
+
+	public enum SyncPolicy {
+		// leave flushing to the operating system
+		NONE,
+		// force the data to disk at the end of every commit
+		EVERY_COMMIT,
+		// force the data to disk when the log is closed
+		ON_CLOSE
+	}
+
+	public static final long DEFAULT_MAX_PENDING_BYTES = 1 << 20;
+
+	private final FileChannel channel;
+	private final SyncPolicy syncPolicy;
+	private final long maxPendingBytes;
+
+	// guarded by `this`
+	private final ArrayList<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+	private long pendingBytes;
+	private long appendedEnd;
+
+	// guarded by `commitLock`
+	private final Object commitLock = new Object();
+	private volatile long committedEnd;
+	private boolean closed;
+
+	public static RecordLogWriter open(Path path, SyncPolicy syncPolicy) throws IOException {
+		return new RecordLogWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE), syncPolicy, DEFAULT_MAX_PENDING_BYTES);
+	}
+
+	/*
+	 * Appends to the log in `channel`, which must be open for reading and writing. A record that
+	 * was only partly written when a previous writer stopped is cut off. The writer owns the
+	 * channel from here on and closes it.
+	 */
+	public RecordLogWriter(FileChannel channel, SyncPolicy syncPolicy, long maxPendingBytes) throws IOException {
+		if (maxPendingBytes <= 0) { throw new Error("maxPendingBytes must be positive"); }
+		this.channel = channel;
+		this.syncPolicy = syncPolicy;
+		this.maxPendingBytes = maxPendingBytes;
+
+		long end = MessageIndex.scan(channel).endOffset();
+		if (end < channel.size()) {
+			channel.truncate(end);
+		}
+		this.appendedEnd = end;
+		this.committedEnd = end;
+	}
+
+	/*
+	 * Queues `message` for the next commit and returns the offset it will have in the file. If
+	 * the queue has grown past its limit, commits right away.
+	 */
+	public long append(MessageBuilder message) throws IOException {
+		long bytes = Serialize.computeSerializedSizeInWords(message) * Constants.BYTES_PER_WORD;
+		if (bytes > Integer.MAX_VALUE) { throw new IOException("message is too large for a record"); }
+		ByteBuffer record = ByteBuffer.allocate((int) bytes);
+		Serialize.write(new ArrayOutputStream(record), message);
+
+		long offset;
+		boolean full;
+		synchronized (this) {
+			if (this.closed) { throw new IOException("record log is closed"); }
+			this.pending.add(record);
+
+			offset = this.appendedEnd;
+			this.appendedEnd += bytes;
+			this.pendingBytes += bytes;
+			full = this.pendingBytes >= this.maxPendingBytes;
+		}
+		if (full) {
+			commitThrough(offset + 1);
+		}
+		return offset;
+	}
+
+	/*
+	 * Writes every message appended so far, by this thread or any other, and syncs according to
+	 * the policy. Returns once they are all written.
+	 */
+	public void commit() throws IOException {
+		long end;
+		synchronized (this) {
+			end = this.appendedEnd;
+		}
+		commitThrough(end);
+	}
+
+	/*
+	 * Where the committed records end.
+	 */
+	public long committedOffset() {
+		return this.committedEnd;
+	}
+
+	private void commitThrough(long end) throws IOException {
+		synchronized (this.commitLock) {
+			// another thread's commit may have covered us while we waited
+			if (this.committedEnd >= end) { return; }
+
+			// the batch stays queued until it is on disk, so a failed commit loses nothing and the
+			// next one writes it again at the same offset
+			ByteBuffer[] batch;
+			long batchBytes = 0;
+			synchronized (this) {
+				batch = new ByteBuffer[this.pending.size()];
+				for (int ii = 0; ii < batch.length; ++ii) {
+					batch[ii] = this.pending.get(ii).duplicate();
+					batchBytes += batch[ii].remaining();
+				}
+			}
+			long batchEnd = this.committedEnd + batchBytes;
+
+			this.channel.position(this.committedEnd);
+			Serialize.writeGathering(this.channel, batch);
+			if (this.syncPolicy == SyncPolicy.EVERY_COMMIT) {
+				this.channel.force(false);
+			}
+			synchronized (this) {
+				this.pending.subList(0, batch.length).clear();
+				this.pendingBytes -= batchBytes;
+			}
+			this.committedEnd = batchEnd;
+		}
+	}
+
+	/*
+	 * Commits what is left, syncs unless the policy is NONE, and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (this.closed) { return; }
+			this.closed = true;
+		}
+		try {
+			commit();
+			if (this.syncPolicy != SyncPolicy.NONE) {
+				this.channel.force(false);
+			}
+		} finally {
+			this.channel.close();
+		}
+	}
+}
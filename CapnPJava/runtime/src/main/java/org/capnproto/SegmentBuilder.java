@@ -30,15 +30,16 @@ public final class SegmentBuilder extends SegmentReader {
 
 	public int pos = 0; // in words
 	public int id = 0;
+	// words between `pos` and here may hold leftovers and get zeroed when they are allocated
+	int dirtyEnd = 0; // in words
 
 	public SegmentBuilder(ByteBuffer buf, Arena arena) {
 		super(buf, arena);
 	}
 
 	// the total number of words the buffer can hold
-	private final int capacity() {
-		this.buffer.rewind();
-		return this.buffer.remaining() / 8;
+	final int capacity() {
+		return this.buffer.limit() / Constants.BYTES_PER_WORD;
 	}
 
 	// return how many words have already been allocated
@@ -58,6 +59,10 @@ public final class SegmentBuilder extends SegmentReader {
 			int result = this.pos;
 			// allocate the number of words
 			this.pos += amount;
+			if (result < this.dirtyEnd) {
+				WireHelpers.memset(this.buffer, result * Constants.BYTES_PER_WORD, (byte) 0,
+						(Math.min(this.pos, this.dirtyEnd) - result) * Constants.BYTES_PER_WORD);
+			}
 			// return the previous position of the buffer
 			return result;
 		}
@@ -75,4 +80,24 @@ public final class SegmentBuilder extends SegmentReader {
 	public final void put(int index, long value) {
 		buffer.putLong(index * Constants.BYTES_PER_WORD, value);
 	}
+
+	/*
+	 * Makes the whole segment available again. The words allocated so far are not zeroed until
+	 * they are allocated again, so a message that ends up smaller than its predecessor only pays
+	 * for the words it uses.
+	 */
+	final void clear() {
+		this.dirtyEnd = Math.max(this.dirtyEnd, this.pos);
+		this.pos = 0;
+	}
+
+	/*
+	 * Like clear(), but zeroes the leftovers right away, e.g. before the buffer goes back to an
+	 * allocator.
+	 */
+	final void clearAndZero() {
+		this.clear();
+		WireHelpers.memset(this.buffer, 0, (byte) 0, this.dirtyEnd * Constants.BYTES_PER_WORD);
+		this.dirtyEnd = 0;
+	}
 }
@@ -0,0 +1,123 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Remembers how large recent messages with a given root type turned out to be and suggests a
+ * first segment size for the next one, so that most messages fit in a single segment without
+ * every builder reserving room for the largest message ever seen.
+ *
+ * The suggestion is a percentile of the last `window` recorded sizes. Until anything has been
+ * recorded for a root type, BuilderArena.SUGGESTED_FIRST_SEGMENT_WORDS is suggested.
+ *
+ *   MessageBuilder message = hints.newMessageBuilder(Foo.factory);
+ *   Foo.Builder foo = message.initRoot(Foo.factory);
+ *   ...
+ *   hints.record(Foo.factory, message);
+ *
+ * Instances are thread-safe and meant to be shared.
+ */
+public final class SegmentSizeHints {
+
+	public static final int SUGGESTED_WINDOW = 64;
+	public static final double SUGGESTED_PERCENTILE = 0.9;
+
+	private static final int MAX_FIRST_SEGMENT_WORDS = Integer.MAX_VALUE / Constants.BYTES_PER_WORD;
+
+	private static final class History {
+
+		final int[] sizes;
+		final int[] sorted;
+		int count = 0;
+		int next = 0;
+		volatile int suggestion;
+
+		History(int window, int initialSuggestion) {
+			this.sizes = new int[window];
+			this.sorted = new int[window];
+			this.suggestion = initialSuggestion;
+		}
+
+		synchronized void record(int words, double percentile) {
+			this.sizes[this.next] = words;
+			this.next = (this.next + 1) % this.sizes.length;
+			if (this.count < this.sizes.length) {
+				++this.count;
+			}
+			System.arraycopy(this.sizes, 0, this.sorted, 0, this.count);
+			Arrays.sort(this.sorted, 0, this.count);
+			int index = (int) Math.ceil(percentile * this.count) - 1;
+			this.suggestion = this.sorted[Math.max(0, Math.min(this.count - 1, index))];
+		}
+	}
+
+	private final int window;
+	private final double percentile;
+	private final ConcurrentHashMap<StructFactory<?, ?>, History> histories =
+			new ConcurrentHashMap<StructFactory<?, ?>, History>();
+
+	public SegmentSizeHints() {
+		this(SUGGESTED_WINDOW, SUGGESTED_PERCENTILE);
+	}
+
+	public SegmentSizeHints(int window, double percentile) {
+		if (window <= 0) { throw new Error("window must be positive"); }
+		if (!(percentile > 0.0 && percentile <= 1.0)) {
+			throw new Error("percentile must be in (0, 1]");
+		}
+		this.window = window;
+		this.percentile = percentile;
+	}
+
+	public int firstSegmentWords(StructFactory<?, ?> rootType) {
+		History history = this.histories.get(rootType);
+		return history == null ? BuilderArena.SUGGESTED_FIRST_SEGMENT_WORDS : history.suggestion;
+	}
+
+	public MessageBuilder newMessageBuilder(StructFactory<?, ?> rootType) {
+		return new MessageBuilder(this.firstSegmentWords(rootType));
+	}
+
+	public MessageBuilder newMessageBuilder(StructFactory<?, ?> rootType, Allocator allocator) {
+		return new MessageBuilder(this.firstSegmentWords(rootType), BuilderArena.SUGGESTED_ALLOCATION_STRATEGY, allocator);
+	}
+
+	/*
+	 * Records the final size of a finished message whose root is of type `rootType`.
+	 */
+	public void record(StructFactory<?, ?> rootType, MessageBuilder message) {
+		long words = message.sizeInWords();
+		if (words == 0) { return; }
+		History history = this.histories.get(rootType);
+		if (history == null) {
+			History fresh = new History(this.window, BuilderArena.SUGGESTED_FIRST_SEGMENT_WORDS);
+			history = this.histories.putIfAbsent(rootType, fresh);
+			if (history == null) {
+				history = fresh;
+			}
+		}
+		history.record((int) Math.min(words, MAX_FIRST_SEGMENT_WORDS), this.percentile);
+	}
+}
@@ -24,6 +24,8 @@ package org.capnproto;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
@@ -53,6 +55,15 @@ public final class Serialize {
 	}
 
 	public static MessageReader read(ReadableByteChannel bc, ReaderOptions options) throws IOException {
+		return read(bc, options, BuilderArena.SUGGESTED_ALLOCATOR);
+	}
+
+	/*
+	 * Reads the segments into a buffer obtained from `allocator`, for example a direct buffer,
+	 * so that a channel can fill it without an intermediate copy. MessageReader.close() hands
+	 * the buffer back.
+	 */
+	public static MessageReader read(ReadableByteChannel bc, ReaderOptions options, Allocator allocator) throws IOException {
 		ByteBuffer firstWord = makeByteBuffer(Constants.BYTES_PER_WORD);	//create new buffer with max. 8 bytes
 		fillBuffer(firstWord, bc);											//fill the new created buffer with the first 8 bytes of the channel
 
@@ -99,9 +110,11 @@ public final class Serialize {
 			throw new DecodeException("Message size exceeds traversal limit.");			//checks if the received message is in limit of bounds
 		}
 
-		ByteBuffer allSegments = makeByteBuffer(totalWords * Constants.BYTES_PER_WORD);		//creates a new buffer with as much space as the size of all 
+		ByteBuffer allSegments = allocator.allocateSegment(totalWords);		//gets a buffer with as much space as the size of all 
 		//segments times 8 bytes per word
 		//-> buffer with as many words the total size of all segments
+		allSegments.limit(totalWords * Constants.BYTES_PER_WORD);		// the allocator may hand out more than we asked for
+		allSegments.order(ByteOrder.LITTLE_ENDIAN);
 		fillBuffer(allSegments, bc);							//fills new buffer with the segments content
 		//where should be a lot of zeros
 		ByteBuffer[] segmentSlices = new ByteBuffer[segmentCount];			//creates new array for segment slices with as many entrys as segments in the message
@@ -121,7 +134,145 @@ public final class Serialize {
 			offset += moreSizes.get(ii - 1);
 		}																//puts every segment-content in the sementSlices array
 
-		return new MessageReader(segmentSlices, options);				//returns a MessageReader with an array of the sizes of each segment
+		return new MessageReader(segmentSlices, options, allSegments, allocator);		//returns a MessageReader with an array of the sizes of each segment
+	}
+
+	/*
+	 * Reads the segment table of the message at `offset` in a file and returns the size of each
+	 * segment in words.
+	 */
+	private static int[] readSegmentTable(FileChannel channel, long offset, ReaderOptions options) throws IOException {
+		ByteBuffer firstWord = makeByteBuffer(Constants.BYTES_PER_WORD);
+		fillBuffer(firstWord, channel, offset);
+
+		int segmentCount = 1 + firstWord.getInt(0);
+		if (segmentCount <= 0) {
+			throw new IOException("invalid segment count");
+		}
+		if (segmentCount > 512) {
+			throw new IOException("too many segments");
+		}
+
+		ByteBuffer header = makeByteBuffer(segmentTableBytes(segmentCount));
+		firstWord.rewind();
+		header.put(firstWord);
+		fillBuffer(header, channel, offset + Constants.BYTES_PER_WORD);
+
+		int[] segmentSizes = new int[segmentCount];
+		long totalWords = 0;
+		for (int ii = 0; ii < segmentCount; ++ii) {
+			int size = header.getInt(Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION * (ii + 1));
+			if (size < 0 || size > Integer.MAX_VALUE / Constants.BYTES_PER_WORD) {
+				throw new DecodeException("Segment is too large.");
+			}
+			segmentSizes[ii] = size;
+			totalWords += size;
+		}
+
+		if (totalWords > options.traversalLimitInWords) {
+			throw new DecodeException("Message size exceeds traversal limit.");
+		}
+
+		if (offset + segmentTableBytes(segmentCount) + totalWords * Constants.BYTES_PER_WORD > channel.size()) {
+			throw new IOException("premature EOF");
+		}
+		return segmentSizes;
+	}
+
+	// the segment count and sizes, padded to a whole word
+	static int segmentTableBytes(int segmentCount) {
+		return (Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION * (segmentCount + 1) + Constants.BYTES_PER_WORD - 1)
+				& ~(Constants.BYTES_PER_WORD - 1);
+	}
+
+	public static MessageReader readMapped(FileChannel channel, long offset) throws IOException {
+		return readMapped(channel, offset, ReaderOptions.DEFAULT_READER_OPTIONS);
+	}
+
+	/*
+	 * Reads the message that starts at `offset` in a file by mapping its segments into memory
+	 * rather than copying them, so only the segment table is read up front and the rest is paged
+	 * in as it is traversed. The channel is not moved and may be closed afterwards; the mapping
+	 * stays valid as long as the message is reachable.
+	 */
+	public static MessageReader readMapped(FileChannel channel, long offset, ReaderOptions options) throws IOException {
+		int[] segmentSizes = readSegmentTable(channel, offset, options);
+		int segmentCount = segmentSizes.length;
+
+		long totalWords = 0;
+		for (int size : segmentSizes) {
+			totalWords += size;
+		}
+		long bodyOffset = offset + segmentTableBytes(segmentCount);
+		long bodyBytes = totalWords * Constants.BYTES_PER_WORD;
+
+		ByteBuffer[] segmentSlices = new ByteBuffer[segmentCount];
+		if (bodyBytes <= Integer.MAX_VALUE) {
+			// one mapping for the whole message
+			ByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY, bodyOffset, bodyBytes);
+			int position = 0;
+			for (int ii = 0; ii < segmentCount; ++ii) {
+				body.position(position);
+				segmentSlices[ii] = body.slice();
+				segmentSlices[ii].limit(segmentSizes[ii] * Constants.BYTES_PER_WORD);
+				segmentSlices[ii].order(ByteOrder.LITTLE_ENDIAN);
+				position += segmentSizes[ii] * Constants.BYTES_PER_WORD;
+			}
+		} else {
+			// a ByteBuffer cannot span more than 2 GB, so map each segment on its own
+			long position = bodyOffset;
+			for (int ii = 0; ii < segmentCount; ++ii) {
+				long segmentBytes = (long) segmentSizes[ii] * Constants.BYTES_PER_WORD;
+				segmentSlices[ii] = channel.map(FileChannel.MapMode.READ_ONLY, position, segmentBytes);
+				segmentSlices[ii].order(ByteOrder.LITTLE_ENDIAN);
+				position += segmentBytes;
+			}
+		}
+
+		return new MessageReader(segmentSlices, options);
+	}
+
+	/*
+	 * Reads the message that starts at `offset` in a file one segment at a time: only the segment
+	 * table is read up front, and each segment is read into a heap buffer the first time it is
+	 * needed. Suits huge multi-segment messages of which only a few fields are read. The channel
+	 * must stay open as long as the message is in use, and is not moved. A segment that cannot be
+	 * read then surfaces as a DecodeException whose cause is the IOException.
+	 */
+	public static MessageReader readLazily(final FileChannel channel, long offset, ReaderOptions options) throws IOException {
+		final int[] segmentSizes = readSegmentTable(channel, offset, options);
+		final long[] segmentOffsets = new long[segmentSizes.length];
+		long position = offset + segmentTableBytes(segmentSizes.length);
+		for (int ii = 0; ii < segmentSizes.length; ++ii) {
+			segmentOffsets[ii] = position;
+			position += (long) segmentSizes[ii] * Constants.BYTES_PER_WORD;
+		}
+
+		SegmentLoader loader = new SegmentLoader() {
+
+			@Override
+			public ByteBuffer loadSegment(int id) throws IOException {
+				ByteBuffer segment = makeByteBuffer(segmentSizes[id] * Constants.BYTES_PER_WORD);
+				fillBuffer(segment, channel, segmentOffsets[id]);
+				segment.rewind();
+				return segment;
+			}
+		};
+		return new MessageReader(new ReaderArena(segmentSizes.length, loader, options.traversalLimitInWords), options);
+	}
+
+	/*
+	 * Fills `buffer` from `channel` starting at file position `position`, without moving the
+	 * channel.
+	 */
+	static void fillBuffer(ByteBuffer buffer, FileChannel channel, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int r = channel.read(buffer, position);
+			if (r < 0) {
+				throw new IOException("premature EOF");
+			}
+			position += r;
+		}
 	}
 
 	public static MessageReader read(ByteBuffer bb) throws IOException {
@@ -132,6 +283,11 @@ public final class Serialize {
 	 * Upon return, `bb.position()` will be at the end of the message.
 	 */
 	public static MessageReader read(ByteBuffer bb, ReaderOptions options) throws IOException {
+		return new MessageReader(segmentSlices(bb, options), options);
+	}
+
+	// splits the message at the position of `bb` into its segments and moves past it
+	static ByteBuffer[] segmentSlices(ByteBuffer bb, ReaderOptions options) throws IOException {
 		bb.order(ByteOrder.LITTLE_ENDIAN);
 
 		int segmentCount = 1 + bb.getInt();			//gets the number of segments in the buffer
@@ -165,7 +321,7 @@ public final class Serialize {
 		if (totalWords > options.traversalLimitInWords) { throw new DecodeException("Message size exceeds traversal limit.");		//checks the size of the content
 		}
 
-		return new MessageReader(segmentSlices, options);				// returns a MessageReader with an array of the segments content
+		return segmentSlices;
 	}
 
 	public static long computeSerializedSizeInWords(MessageBuilder message) {			//called in the compiler Test
@@ -192,8 +348,7 @@ public final class Serialize {
 		return bytes / Constants.BYTES_PER_WORD;			//returns the size of the message in words
 	}
 
-	public static void write(WritableByteChannel outputChannel, MessageBuilder message) throws IOException {
-		ByteBuffer[] segments = message.getSegmentsForOutput();
+	static ByteBuffer makeSegmentTable(ByteBuffer[] segments) {
 		int tableSize = (segments.length + 2) & (~1);
 
 		ByteBuffer table = ByteBuffer.allocate(4 * tableSize);
@@ -206,6 +361,41 @@ public final class Serialize {
 		}
 
 		// Any padding is already zeroed.
+		return table;
+	}
+
+	/*
+	 * Writes the buffers with as few calls as the channel allows. Gathering writes may stop short,
+	 * so this keeps going from the first buffer that still has bytes left.
+	 */
+	static void writeGathering(GatheringByteChannel outputChannel, ByteBuffer[] buffers) throws IOException {
+		int first = 0;
+		while (first < buffers.length) {
+			if (buffers[first].hasRemaining()) {
+				outputChannel.write(buffers, first, buffers.length - first);
+			}
+			while (first < buffers.length && !buffers[first].hasRemaining()) {
+				++first;
+			}
+		}
+	}
+
+	/*
+	 * Writes the segment table and the segments. Channels that support gathering writes, such as
+	 * socket and file channels, get them all in one call.
+	 */
+	public static void write(WritableByteChannel outputChannel, MessageBuilder message) throws IOException {
+		ByteBuffer[] segments = message.getSegmentsForOutput();
+		ByteBuffer table = makeSegmentTable(segments);
+
+		if (outputChannel instanceof GatheringByteChannel) {
+			ByteBuffer[] buffers = new ByteBuffer[segments.length + 1];
+			buffers[0] = table;
+			System.arraycopy(segments, 0, buffers, 1, segments.length);
+			writeGathering((GatheringByteChannel) outputChannel, buffers);
+			return;
+		}
+
 		while (table.hasRemaining()) {
 			outputChannel.write(table);
 		}
@@ -216,4 +406,27 @@ public final class Serialize {
 			}
 		}
 	}
+
+	/*
+	 * Writes the messages one after the other, as separate write() calls would, but coalesced into
+	 * a single gathering write if the channel supports it.
+	 */
+	public static void writeAll(WritableByteChannel outputChannel, MessageBuilder... messages) throws IOException {
+		if (!(outputChannel instanceof GatheringByteChannel)) {
+			for (MessageBuilder message : messages) {
+				write(outputChannel, message);
+			}
+			return;
+		}
+
+		ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		for (MessageBuilder message : messages) {
+			ByteBuffer[] segments = message.getSegmentsForOutput();
+			buffers.add(makeSegmentTable(segments));
+			for (ByteBuffer segment : segments) {
+				buffers.add(segment);
+			}
+		}
+		writeGathering((GatheringByteChannel) outputChannel, buffers.toArray(new ByteBuffer[buffers.size()]));
+	}
 }
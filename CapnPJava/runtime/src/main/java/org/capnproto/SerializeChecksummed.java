@@ -0,0 +1,177 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * Messages followed by one word holding a CRC-32C of the segment table and the segments, in the
+ * low four bytes, and zero. The readers check it before returning the message, so corruption
+ * is reported as a DecodeException up front instead of turning up during traversal. The packed
+ * variants checksum the unpacked bytes and pack the trailing word along with the message.
+ */
+public final class SerializeChecksummed {
+
+	static ByteBuffer makeTrailer(int crc) {
+		ByteBuffer trailer = ByteBuffer.allocate(Constants.BYTES_PER_WORD);
+		trailer.order(ByteOrder.LITTLE_ENDIAN);
+		trailer.putInt(0, crc);
+		return trailer;
+	}
+
+	private static int checksum(ByteBuffer table, ByteBuffer[] segments) {
+		java.util.zip.Checksum checksum = Crc32c.newChecksum();
+		Crc32c.update(checksum, table);
+		for (ByteBuffer segment : segments) {
+			Crc32c.update(checksum, segment);
+		}
+		return (int) checksum.getValue();
+	}
+
+	private static void checkTrailer(ByteBuffer trailer, int crc) {
+		trailer.order(ByteOrder.LITTLE_ENDIAN);
+		if (trailer.getInt(0) != crc || trailer.getInt(4) != 0) { throw new DecodeException("Message checksum does not match."); }
+	}
+
+	// checks a message read from a stream, whose segments are all in memory
+	private static MessageReader verify(MessageReader message, ByteBuffer trailer) {
+		int segmentCount = message.arena.segmentCount();
+		ByteBuffer[] segments = new ByteBuffer[segmentCount];
+		for (int ii = 0; ii < segmentCount; ++ii) {
+			ByteBuffer segment = message.arena.tryGetSegment(ii).buffer.duplicate();
+			segment.rewind();
+			segments[ii] = segment;
+		}
+		try {
+			checkTrailer(trailer, checksum(Serialize.makeSegmentTable(segments), segments));
+		} catch (DecodeException e) {
+			message.close();
+			throw e;
+		}
+		return message;
+	}
+
+	public static void write(WritableByteChannel outputChannel, MessageBuilder message) throws IOException {
+		ByteBuffer[] segments = message.getSegmentsForOutput();
+		ByteBuffer table = Serialize.makeSegmentTable(segments);
+		ByteBuffer trailer = makeTrailer(checksum(table, segments));
+
+		ByteBuffer[] buffers = new ByteBuffer[segments.length + 2];
+		buffers[0] = table;
+		System.arraycopy(segments, 0, buffers, 1, segments.length);
+		buffers[buffers.length - 1] = trailer;
+
+		if (outputChannel instanceof GatheringByteChannel) {
+			Serialize.writeGathering((GatheringByteChannel) outputChannel, buffers);
+			return;
+		}
+		for (ByteBuffer buffer : buffers) {
+			while (buffer.hasRemaining()) {
+				outputChannel.write(buffer);
+			}
+		}
+	}
+
+	public static MessageReader read(ReadableByteChannel bc) throws IOException {
+		return read(bc, ReaderOptions.DEFAULT_READER_OPTIONS);
+	}
+
+	public static MessageReader read(ReadableByteChannel bc, ReaderOptions options) throws IOException {
+		return read(bc, options, BuilderArena.SUGGESTED_ALLOCATOR);
+	}
+
+	public static MessageReader read(ReadableByteChannel bc, ReaderOptions options, Allocator allocator)
+			throws IOException {
+		MessageReader message = Serialize.read(bc, options, allocator);
+		ByteBuffer trailer = Serialize.makeByteBuffer(Constants.BYTES_PER_WORD);
+		try {
+			Serialize.fillBuffer(trailer, bc);
+		} catch (IOException e) {
+			message.close();
+			throw e;
+		}
+		return verify(message, trailer);
+	}
+
+	public static MessageReader read(ByteBuffer bb) throws IOException {
+		return read(bb, ReaderOptions.DEFAULT_READER_OPTIONS);
+	}
+
+	/*
+	 * Checks the message in place, in one pass over its bytes, before reading it. Upon return,
+	 * `bb.position()` will be after the checksum.
+	 */
+	public static MessageReader read(ByteBuffer bb, ReaderOptions options) throws IOException {
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		int start = bb.position();
+		if (bb.remaining() < Constants.BYTES_PER_WORD) { throw new IOException("premature EOF"); }
+
+		// find the end of the message from its segment table, without trusting it
+		int segmentCount = 1 + bb.getInt(start);
+		if (segmentCount < 1) { throw new IOException("invalid segment count"); }
+		if (segmentCount > 512) { throw new IOException("too many segments"); }
+		long end = start + Serialize.segmentTableBytes(segmentCount);
+		if (end > bb.limit()) { throw new IOException("premature EOF"); }
+		for (int ii = 0; ii < segmentCount; ++ii) {
+			end += (bb.getInt(start + Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION * (ii + 1)) & 0xffffffffL)
+					* Constants.BYTES_PER_WORD;
+		}
+		if (end + Constants.BYTES_PER_WORD > bb.limit()) { throw new IOException("premature EOF"); }
+
+		ByteBuffer body = bb.duplicate();
+		body.limit((int) end);
+		java.util.zip.Checksum checksum = Crc32c.newChecksum();
+		Crc32c.update(checksum, body);
+		ByteBuffer trailer = bb.duplicate();
+		trailer.position((int) end);
+		checkTrailer(trailer.slice(), (int) checksum.getValue());
+
+		MessageReader message = Serialize.read(bb, options);
+		bb.position((int) end + Constants.BYTES_PER_WORD);
+		return message;
+	}
+
+	public static void writePacked(BufferedOutputStream output, MessageBuilder message) throws IOException {
+		ByteBuffer[] segments = message.getSegmentsForOutput();
+		ByteBuffer trailer = makeTrailer(checksum(Serialize.makeSegmentTable(segments), segments));
+		PackedOutputStream packedOutput = new PackedOutputStream(output);
+		Serialize.write(packedOutput, message);
+		packedOutput.write(trailer);
+	}
+
+	public static MessageReader readPacked(BufferedInputStream input) throws IOException {
+		return readPacked(input, ReaderOptions.DEFAULT_READER_OPTIONS);
+	}
+
+	public static MessageReader readPacked(BufferedInputStream input, ReaderOptions options) throws IOException {
+		PackedInputStream packedInput = new PackedInputStream(input);
+		MessageReader message = Serialize.read(packedInput, options);
+		ByteBuffer trailer = Serialize.makeByteBuffer(Constants.BYTES_PER_WORD);
+		Serialize.fillBuffer(trailer, packedInput);
+		return verify(message, trailer);
+	}
+}
@@ -0,0 +1,139 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * Writes and reads messages as frames whose payload is encoded with a Codec. Each frame starts
+ * with a header of three little-endian 32-bit values: the codec id, the length of the payload and
+ * the length of the serialized message it decodes to.
+ *
+ * Messages smaller than the threshold are encoded with one codec, larger ones with another, so
+ * that small messages can skip an expensive codec that only pays off on bulk. A frame whose
+ * encoding would not be shorter than the message is written unencoded.
+ */
+public final class SerializeCodec {
+
+	static final int HEADER_BYTES = 12;
+
+	// in bytes of the serialized message
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	private final Codec small;
+	private final Codec large;
+	private final int threshold;
+
+	public SerializeCodec(Codec codec) {
+		this(codec, codec, 0);
+	}
+
+	public SerializeCodec(Codec small, Codec large, int threshold) {
+		this.small = small;
+		this.large = large;
+		this.threshold = threshold;
+	}
+
+	public void write(BufferedOutputStream output, MessageBuilder message) throws IOException {
+		long size = Serialize.computeSerializedSizeInWords(message) * Constants.BYTES_PER_WORD;
+		if (size > Integer.MAX_VALUE) { throw new Error("Message is too large for a single frame"); }
+		ByteBuffer serialized = ByteBuffer.allocate((int) size);
+		serialized.order(ByteOrder.LITTLE_ENDIAN);
+		Serialize.write(new ArrayOutputStream(serialized), message);
+
+		Codec codec = size < this.threshold ? this.small : this.large;
+		ByteBuffer payload = codec.encode(serialized);
+		if (codec != Codec.NONE && payload.remaining() >= size) {
+			codec = Codec.NONE;
+			payload = serialized;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, codec.id());
+		header.putInt(4, payload.remaining());
+		header.putInt(8, (int) size);
+		output.write(header);
+		while (payload.hasRemaining()) {
+			output.write(payload);
+		}
+	}
+
+	public MessageReader read(BufferedInputStream input) throws IOException {
+		return read(input, ReaderOptions.DEFAULT_READER_OPTIONS);
+	}
+
+	public MessageReader read(BufferedInputStream input, ReaderOptions options) throws IOException {
+		return read(input, options, null);
+	}
+
+	/*
+	 * Decodes the message into a buffer obtained from `allocator`, which MessageReader.close()
+	 * hands back. A null allocator decodes into a heap buffer that is left to the garbage
+	 * collector.
+	 */
+	public MessageReader read(BufferedInputStream input, ReaderOptions options, Allocator allocator) throws IOException {
+		ByteBuffer header = Serialize.makeByteBuffer(HEADER_BYTES);
+		Serialize.fillBuffer(header, input);
+		int id = header.getInt(0);
+		int payloadLength = header.getInt(4);
+		int messageLength = header.getInt(8);
+
+		Codec codec;
+		if (id == Codec.NONE.id()) {
+			codec = Codec.NONE;
+		} else if (id == this.small.id()) {
+			codec = this.small;
+		} else if (id == this.large.id()) {
+			codec = this.large;
+		} else {
+			throw new IOException("frame uses unknown codec " + id);
+		}
+
+		// encoded frames are only written when they are shorter than the message
+		if (messageLength < 0 || messageLength % Constants.BYTES_PER_WORD != 0) { throw new IOException("bad message length in frame"); }
+		if (payloadLength < 0 || payloadLength > messageLength) { throw new IOException("bad payload length in frame"); }
+		if (messageLength / Constants.BYTES_PER_WORD > options.traversalLimitInWords) {
+			throw new DecodeException("Message size exceeds traversal limit.");
+		}
+
+		ByteBuffer payload = Serialize.makeByteBuffer(payloadLength);
+		Serialize.fillBuffer(payload, input);
+		payload.rewind();
+
+		if (allocator == null) {
+			ByteBuffer serialized = Serialize.makeByteBuffer(messageLength);
+			codec.decode(payload, serialized);
+			serialized.rewind();
+			return Serialize.read(serialized, options);
+		}
+		ByteBuffer serialized = allocator.allocateSegment(messageLength / Constants.BYTES_PER_WORD);
+		// the allocator may hand out more than we asked for
+		serialized.limit(messageLength);
+		codec.decode(payload, serialized);
+		serialized.rewind();
+		return new MessageReader(Serialize.segmentSlices(serialized.duplicate(), options), options, serialized,
+				allocator);
+	}
+}
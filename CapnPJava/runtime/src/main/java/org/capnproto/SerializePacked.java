@@ -21,8 +21,20 @@
 
 package org.capnproto;
 
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
 public final class SerializePacked {
 
+	// segments larger than this are split into chunks of about this size for writeParallel()
+	static final int PARALLEL_CHUNK_BYTES = 1 << 20;
+
+	// how many packed chunks writeParallel() keeps in memory at once
+	static final int PARALLEL_CHUNKS_IN_FLIGHT = 32;
+
 	public static MessageReader read(BufferedInputStream input) throws java.io.IOException {
 		return read(input, ReaderOptions.DEFAULT_READER_OPTIONS);
 	}
@@ -32,6 +44,89 @@ public final class SerializePacked {
 		return Serialize.read(packedInput, options);
 	}
 
+	public static MessageReader read(BufferedInputStream input, ReaderOptions options, Allocator allocator)
+			throws java.io.IOException {
+		PackedInputStream packedInput = new PackedInputStream(input);
+		return Serialize.read(packedInput, options, allocator);
+	}
+
+	public static MessageReader read(java.nio.ByteBuffer packed) throws java.io.IOException {
+		return read(packed, ReaderOptions.DEFAULT_READER_OPTIONS);
+	}
+
+	/*
+	 * Unpacks a message that is already in memory. The header is unpacked first so that the
+	 * segments can be unpacked in one pass into a buffer of exactly their size. Upon return,
+	 * `packed.position()` will be at the end of the message.
+	 */
+	public static MessageReader read(java.nio.ByteBuffer packed, ReaderOptions options) throws java.io.IOException {
+		return read(packed, options, null);
+	}
+
+	/*
+	 * Like read(ByteBuffer, ReaderOptions), but unpacks the segments into a buffer obtained from
+	 * `allocator`, for example a pooled one, so that repeated reads can reuse the same memory.
+	 * MessageReader.close() hands the buffer back.
+	 */
+	public static MessageReader read(java.nio.ByteBuffer packed, ReaderOptions options, Allocator allocator)
+			throws java.io.IOException {
+		ArrayInputStream input = new ArrayInputStream(packed);
+		PackedInputStream packedInput = new PackedInputStream(input);
+
+		java.nio.ByteBuffer firstWord = Serialize.makeByteBuffer(Constants.BYTES_PER_WORD);
+		packedInput.read(firstWord);
+		int segmentCount = 1 + firstWord.getInt(0);
+		if (segmentCount < 1) { throw new java.io.IOException("invalid segment count"); }
+		if (segmentCount > 512) { throw new java.io.IOException("too many segments"); }
+
+		int[] segmentSizes = new int[segmentCount];
+		if (segmentCount > 0) {
+			segmentSizes[0] = firstWord.getInt(Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION);
+		}
+		if (segmentCount > 1) {
+			// the rest of the table, padded to a whole word
+			java.nio.ByteBuffer moreSizes = Serialize.makeByteBuffer(
+					Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION * (segmentCount & ~1));
+			packedInput.read(moreSizes);
+			for (int ii = 1; ii < segmentCount; ++ii) {
+				segmentSizes[ii] = moreSizes.getInt((ii - 1) * Constants.BYTES_PER_SEGMENT_SIZE_SPECIFICATION);
+			}
+		}
+
+		// sizes are unsigned, so a corrupt table cannot sum to something small
+		long totalWords = 0;
+		for (int size : segmentSizes) {
+			totalWords += size & 0xffffffffL;
+		}
+		if (totalWords > options.traversalLimitInWords) { throw new DecodeException("Message size exceeds traversal limit."); }
+		if (totalWords * Constants.BYTES_PER_WORD > Integer.MAX_VALUE) { throw new DecodeException("Message is too large."); }
+
+		java.nio.ByteBuffer allSegments;
+		if (allocator == null) {
+			allSegments = Serialize.makeByteBuffer((int) totalWords * Constants.BYTES_PER_WORD);
+		} else {
+			allSegments = allocator.allocateSegment((int) totalWords);
+			allSegments.limit((int) totalWords * Constants.BYTES_PER_WORD);
+			allSegments.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		}
+		packedInput.read(allSegments);
+		packed.position(input.buf.position());
+
+		java.nio.ByteBuffer[] segmentSlices = new java.nio.ByteBuffer[segmentCount];
+		int offset = 0;
+		for (int ii = 0; ii < segmentCount; ++ii) {
+			allSegments.position(offset * Constants.BYTES_PER_WORD);
+			segmentSlices[ii] = allSegments.slice();
+			segmentSlices[ii].limit(segmentSizes[ii] * Constants.BYTES_PER_WORD);
+			segmentSlices[ii].order(java.nio.ByteOrder.LITTLE_ENDIAN);
+			offset += segmentSizes[ii];
+		}
+		allSegments.rewind();
+
+		if (allocator == null) { return new MessageReader(segmentSlices, options); }
+		return new MessageReader(segmentSlices, options, allSegments, allocator);
+	}
+
 	public static MessageReader readFromUnbuffered(java.nio.channels.ReadableByteChannel input) throws java.io.IOException {
 		return readFromUnbuffered(input, ReaderOptions.DEFAULT_READER_OPTIONS);
 	}
@@ -47,10 +142,138 @@ public final class SerializePacked {
 		Serialize.write(packedOutputStream, message);
 	}
 
+	/*
+	 * The exact number of bytes write() produces for `message`, found by running the packing
+	 * over the message without writing anything.
+	 */
+	public static long computeSerializedSizeInBytes(MessageBuilder message) {
+		java.nio.ByteBuffer[] segments = message.getSegmentsForOutput();
+		// the table and each segment are packed separately, so no run spans two of them
+		long bytes = PackedOutputStream.packedSize(Serialize.makeSegmentTable(segments));
+		for (java.nio.ByteBuffer segment : segments) {
+			bytes += PackedOutputStream.packedSize(segment);
+		}
+		return bytes;
+	}
+
+	/*
+	 * Packs `message` straight into a heap buffer of exactly its packed size. The result is
+	 * positioned at zero, ready to be read or written out.
+	 */
+	public static java.nio.ByteBuffer writeToByteBuffer(MessageBuilder message) throws java.io.IOException {
+		long size = computeSerializedSizeInBytes(message);
+		if (size > Integer.MAX_VALUE) { throw new Error("Packed message is too large for a single buffer"); }
+		java.nio.ByteBuffer result = java.nio.ByteBuffer.allocate((int) size);
+		write(new ArrayOutputStream(result), message);
+		return result;
+	}
+
+	public static byte[] toByteArray(MessageBuilder message) throws java.io.IOException {
+		return writeToByteBuffer(message).array();
+	}
+
 	public static void writeToUnbuffered(java.nio.channels.WritableByteChannel output, MessageBuilder message)
 			throws java.io.IOException {
 		BufferedOutputStreamWrapper buffered = new BufferedOutputStreamWrapper(output);
 		write(buffered, message);
 		buffered.flush();
 	}
+	/*
+	 * Writes the same bytes as writeToUnbuffered(), but packs the segments, and large segments in
+	 * chunks of about a megabyte, as separate tasks on `executor`, for example a ForkJoinPool.
+	 * Chunks are only cut where the sequential packing starts a new tag anyway, and are written
+	 * in order as they complete.
+	 */
+	public static void writeParallel(java.nio.channels.WritableByteChannel output, MessageBuilder message,
+			Executor executor) throws java.io.IOException {
+		writeParallel(output, message, executor, PARALLEL_CHUNK_BYTES);
+	}
+
+	static void writeParallel(java.nio.channels.WritableByteChannel output, MessageBuilder message,
+			Executor executor, int chunkBytes) throws java.io.IOException {
+		java.nio.ByteBuffer[] segments = message.getSegmentsForOutput();
+		ArrayDeque<FutureTask<java.nio.ByteBuffer>> inFlight = new ArrayDeque<FutureTask<java.nio.ByteBuffer>>();
+		try {
+			// the table is tiny; pack it here while the first chunks get going
+			java.nio.ByteBuffer table = packChunk(Serialize.makeSegmentTable(segments));
+
+			for (java.nio.ByteBuffer segment : segments) {
+				int start = segment.position();
+				while (start < segment.limit()) {
+					int end = segment.limit();
+					if (end - start > chunkBytes) {
+						end = PackedOutputStream.nextTagBoundary(segment, start + chunkBytes);
+					}
+					java.nio.ByteBuffer chunk = segment.duplicate();
+					chunk.limit(end);
+					chunk.position(start);
+					final java.nio.ByteBuffer words = chunk.slice().order(segment.order());
+					FutureTask<java.nio.ByteBuffer> task = new FutureTask<java.nio.ByteBuffer>(
+							new Callable<java.nio.ByteBuffer>() {
+								@Override
+								public java.nio.ByteBuffer call() throws java.io.IOException {
+									return packChunk(words);
+								}
+							});
+					executor.execute(task);
+					inFlight.add(task);
+					start = end;
+
+					if (inFlight.size() >= PARALLEL_CHUNKS_IN_FLIGHT) {
+						if (table != null) {
+							writeFully(output, table);
+							table = null;
+						}
+						writeFully(output, awaitChunk(inFlight.poll()));
+					}
+				}
+			}
+
+			if (table != null) {
+				writeFully(output, table);
+			}
+			while (!inFlight.isEmpty()) {
+				writeFully(output, awaitChunk(inFlight.poll()));
+			}
+		} finally {
+			for (FutureTask<java.nio.ByteBuffer> task : inFlight) {
+				task.cancel(false);
+			}
+		}
+	}
+
+	static java.nio.ByteBuffer packChunk(java.nio.ByteBuffer words) throws java.io.IOException {
+		java.nio.ByteBuffer packed = java.nio.ByteBuffer.allocate(maxPackedSize(words.remaining()));
+		ArrayOutputStream output = new ArrayOutputStream(packed);
+		new PackedOutputStream(output).write(words);
+		packed.limit(output.buf.position());
+		return packed;
+	}
+
+	static int maxPackedSize(int bytes) {
+		// a packed word takes at most nine bytes, or ten when it starts a run of uncompressed words
+		return bytes + bytes / Constants.BYTES_PER_WORD + 2;
+	}
+
+	private static java.nio.ByteBuffer awaitChunk(FutureTask<java.nio.ByteBuffer> task) throws java.io.IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new java.io.InterruptedIOException("interrupted while packing");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof java.io.IOException) { throw (java.io.IOException) cause; }
+			if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+			if (cause instanceof Error) { throw (Error) cause; }
+			throw new Error(cause);
+		}
+	}
+
+	private static void writeFully(java.nio.channels.WritableByteChannel output, java.nio.ByteBuffer buffer)
+			throws java.io.IOException {
+		while (buffer.hasRemaining()) {
+			output.write(buffer);
+		}
+	}
 }
@@ -224,4 +224,12 @@ public class StructBuilder {
 	protected final <Builder, Reader> void _setPointerField(SetPointerBuilder<Builder, Reader> factory, int index, Reader value) {
 		factory.setPointerBuilder(this.segment, this.pointers + index, value);
 	}
+
+	protected final <T> Orphan<T> _disownPointerField(FromPointerBuilder<T> factory, int index) {
+		return Orphan.disown(factory, this.segment, this.pointers + index);
+	}
+
+	protected final void _adoptPointerField(Orphan<?> orphan, int index) {
+		orphan.adoptInto(this.segment, this.pointers + index);
+	}
 }
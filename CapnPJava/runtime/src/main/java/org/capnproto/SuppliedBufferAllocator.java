@@ -0,0 +1,77 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/*
+ * Builds messages in buffers owned by the caller, for example regions of a memory-mapped file
+ * or a buffer shared with native code. Each request takes the first supplied buffer that is
+ * large enough; once none fits, the fallback allocator is used. Released buffers become
+ * available again.
+ */
+public final class SuppliedBufferAllocator implements Allocator {
+
+	private final ArrayList<ByteBuffer> supplied;
+	private final ArrayList<ByteBuffer> available;
+	private final Allocator fallback;
+
+	public SuppliedBufferAllocator(ByteBuffer[] buffers, Allocator fallback) {
+		this.supplied = new ArrayList<ByteBuffer>(buffers.length);
+		this.available = new ArrayList<ByteBuffer>(buffers.length);
+		for (ByteBuffer buffer : buffers) {
+			// the caller's position and limit delimit the usable region, rounded down to whole words
+			ByteBuffer region = buffer.slice();
+			region.limit(region.capacity() & ~(Constants.BYTES_PER_WORD - 1));
+			region = region.slice();
+			// we cannot know what the caller left in the buffer
+			WireHelpers.memset(region, 0, (byte) 0, region.capacity());
+			this.supplied.add(region);
+			this.available.add(region);
+		}
+		this.fallback = fallback;
+	}
+
+	public final ByteBuffer allocateSegment(int minimumWords) {
+		int bytes = minimumWords * Constants.BYTES_PER_WORD;
+		for (int ii = 0; ii < this.available.size(); ++ii) {
+			if (this.available.get(ii).capacity() >= bytes) { return this.available.remove(ii); }
+		}
+		return this.fallback.allocateSegment(minimumWords);
+	}
+
+	public final void releaseSegment(ByteBuffer segment) {
+		for (ByteBuffer region : this.supplied) {
+			if (region == segment) {
+				segment.clear();
+				this.available.add(segment);
+				return;
+			}
+		}
+		this.fallback.releaseSegment(segment);
+	}
+
+	public final boolean reusesSegments() {
+		return true;
+	}
+}
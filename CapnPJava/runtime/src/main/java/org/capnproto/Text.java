@@ -94,24 +94,24 @@ public final class Text {
 		}
 
 		public ByteBuffer asByteBuffer() {
-			this.buffer.mark();
-			this.buffer.position(this.offset);
-			ByteBuffer result = this.buffer.asReadOnlyBuffer().slice();
+			// a view of its own, so the shared buffer's position is left alone for other threads
+			ByteBuffer result = this.buffer.asReadOnlyBuffer();
+			result.position(this.offset);
+			result = result.slice();
 			result.limit(this.size);
-			this.buffer.reset();
 			return result;
 		}
 
 		@Override
 		public final String toString() {
-			byte[] bytes = new byte[this.size];
-
-			this.buffer.mark();
-			this.buffer.position(this.offset);
-			this.buffer.get(bytes, 0, this.size);
-			this.buffer.reset();
-
 			try {
+				if (this.buffer.hasArray()) {
+					return new String(this.buffer.array(), this.buffer.arrayOffset() + this.offset, this.size, "UTF-8");
+				}
+				byte[] bytes = new byte[this.size];
+				ByteBuffer source = this.buffer.duplicate();
+				source.position(this.offset);
+				source.get(bytes, 0, this.size);
 				return new String(bytes, "UTF-8");
 			}
 			catch (java.io.UnsupportedEncodingException e) {
@@ -140,24 +140,23 @@ public final class Text {
 		}
 
 		public ByteBuffer asByteBuffer() {
-			this.buffer.mark();
-			this.buffer.position(this.offset);
-			ByteBuffer result = this.buffer.slice();
+			ByteBuffer result = this.buffer.duplicate();
+			result.position(this.offset);
+			result = result.slice();
 			result.limit(this.size);
-			this.buffer.reset();
 			return result;
 		}
 
 		@Override
 		public final String toString() {
-			byte[] bytes = new byte[this.size];
-
-			this.buffer.mark();
-			this.buffer.position(this.offset);
-			this.buffer.get(bytes, 0, this.size);
-			this.buffer.reset();
-
 			try {
+				if (this.buffer.hasArray()) {
+					return new String(this.buffer.array(), this.buffer.arrayOffset() + this.offset, this.size, "UTF-8");
+				}
+				byte[] bytes = new byte[this.size];
+				ByteBuffer source = this.buffer.duplicate();
+				source.position(this.offset);
+				source.get(bytes, 0, this.size);
 				return new String(bytes, "UTF-8");
 			}
 			catch (java.io.UnsupportedEncodingException e) {
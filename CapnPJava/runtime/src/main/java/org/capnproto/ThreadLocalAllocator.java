@@ -0,0 +1,143 @@
+// Copyright (c) 2013-2014 Sandstorm Development Group, Inc. and contributors
+// Licensed under the MIT License:
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package org.capnproto;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Gives every thread its own PooledAllocator, so that threads building many short-lived
+ * messages recycle segments without contending on a lock. Segments go back to the pool of the
+ * thread that releases them.
+ *
+ * Each thread pools at most `maxPooledBytesPerThread`, and all threads together at most
+ * `maxPooledBytes`. The pools of threads that have exited are dropped the next time the
+ * overall budget runs out or a new thread starts using the allocator.
+ */
+public final class ThreadLocalAllocator implements Allocator {
+
+	private static final class Entry {
+
+		final WeakReference<Thread> thread;
+		final PooledAllocator pool;
+
+		Entry(Thread thread, PooledAllocator pool) {
+			this.thread = new WeakReference<Thread>(thread);
+			this.pool = pool;
+		}
+
+		boolean isDead() {
+			Thread thread = this.thread.get();
+			return thread == null || !thread.isAlive();
+		}
+	}
+
+	private final Allocator backing;
+	private final long maxPooledBytesPerThread;
+	private final long maxPooledBytes;
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	// every pool handed out so far; guarded by `this`
+	private final ArrayList<Entry> entries = new ArrayList<Entry>();
+	private long retiredHits = 0;
+	private long retiredMisses = 0;
+
+	private final ThreadLocal<PooledAllocator> pools = new ThreadLocal<PooledAllocator>() {
+
+		@Override
+		protected PooledAllocator initialValue() {
+			return ThreadLocalAllocator.this.register();
+		}
+	};
+
+	public ThreadLocalAllocator(Allocator backing, long maxPooledBytesPerThread, long maxPooledBytes) {
+		this.backing = backing;
+		this.maxPooledBytesPerThread = maxPooledBytesPerThread;
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	private synchronized PooledAllocator register() {
+		this.dropDeadThreads();
+		PooledAllocator pool = new PooledAllocator(this.backing, this.maxPooledBytesPerThread, this.pooledBytes,
+				this.maxPooledBytes);
+		this.entries.add(new Entry(Thread.currentThread(), pool));
+		return pool;
+	}
+
+	// guarded by `this`
+	private void dropDeadThreads() {
+		for (int ii = this.entries.size() - 1; ii >= 0; --ii) {
+			Entry entry = this.entries.get(ii);
+			if (entry.isDead()) {
+				this.pooledBytes.addAndGet(-entry.pool.pooledBytes());
+				this.retiredHits += entry.pool.hits();
+				this.retiredMisses += entry.pool.misses();
+				this.entries.remove(ii);
+			}
+		}
+	}
+
+	public final ByteBuffer allocateSegment(int minimumWords) {
+		return this.pools.get().allocateSegment(minimumWords);
+	}
+
+	public final void releaseSegment(ByteBuffer segment) {
+		if (this.pooledBytes.get() + segment.capacity() > this.maxPooledBytes) {
+			synchronized (this) {
+				this.dropDeadThreads();
+			}
+		}
+		this.pools.get().releaseSegment(segment);
+	}
+
+	public final boolean reusesSegments() {
+		return true;
+	}
+
+	// bytes currently pooled by all threads
+	public final long pooledBytes() {
+		return this.pooledBytes.get();
+	}
+
+	/*
+	 * Number of allocations served from a pool, summed over all threads. The counters of other
+	 * threads are read without synchronization, so the result is approximate while they run.
+	 */
+	public final synchronized long hits() {
+		long result = this.retiredHits;
+		for (Entry entry : this.entries) {
+			result += entry.pool.hits();
+		}
+		return result;
+	}
+
+	// number of allocations passed on to the backing allocator, summed like hits()
+	public final synchronized long misses() {
+		long result = this.retiredMisses;
+		for (Entry entry : this.entries) {
+			result += entry.pool.misses();
+		}
+		return result;
+	}
+}
@@ -45,20 +45,14 @@ final class WireHelpers {
 		return (int) ((bits + (Constants.BITS_PER_WORD - 1)) / ((long) Constants.BITS_PER_WORD));
 	}
 
-	static class AllocateResult {							// the result of an allocation
-
-		public final int ptr;								// maybe a pointer to the allocated result ?
-		public final int refOffset;							// the offset to the pointers data
-		public final SegmentBuilder segment;				// the WirePointer in segment form
-
-		AllocateResult(int ptr, int refOffset, SegmentBuilder segment) {
-			this.ptr = ptr;
-			this.refOffset = refOffset;
-			this.segment = segment;
-		}
-	}
-
-	static AllocateResult allocate(int refOffset, SegmentBuilder segment, int amount, // in words
+	/*
+	 * Allocates `amount` words for an object of the given kind and points the pointer at
+	 * `refOffset` to them, returning the word offset of the object. If `segment` is full, the
+	 * object lands in another segment behind a landing pad; allocatedSegment() and
+	 * allocatedRefOffset() tell where it ended up. Nothing but the words themselves is allocated,
+	 * so building stays garbage-free.
+	 */
+	static int allocate(int refOffset, SegmentBuilder segment, int amount, // in words
 			byte kind) {
 
 		long ref = segment.get(refOffset);
@@ -68,7 +62,7 @@ final class WireHelpers {
 
 		if (amount == 0 && kind == WirePointer.STRUCT) {
 			WirePointer.setKindAndTargetForEmptyStruct(segment.buffer, refOffset);
-			return new AllocateResult(refOffset, refOffset, segment);
+			return refOffset;
 		}
 
 		int ptr = segment.allocate(amount);
@@ -78,112 +72,147 @@ final class WireHelpers {
 			//# the landing pad for a far pointer.
 
 			int amountPlusRef = amount + Constants.POINTER_SIZE_IN_WORDS;
-			BuilderArena.AllocateResult allocation = segment.getArena().allocate(amountPlusRef);
+			SegmentBuilder farSegment = segment.getArena().allocateWords(amountPlusRef);
+			int padOffset = farSegment.pos - amountPlusRef;
 
 			//# Set up the original pointer to be a far pointer to
 			//# the new segment.
-			FarPointer.set(segment.buffer, refOffset, false, allocation.offset);
-			FarPointer.setSegmentId(segment.buffer, refOffset, allocation.segment.id);
+			FarPointer.set(segment.buffer, refOffset, false, padOffset);
+			FarPointer.setSegmentId(segment.buffer, refOffset, farSegment.id);
 
 			//# Initialize the landing pad to indicate that the
 			//# data immediately follows the pad.
-			int resultRefOffset = allocation.offset;
-			int ptr1 = allocation.offset + Constants.POINTER_SIZE_IN_WORDS;
+			int ptr1 = padOffset + Constants.POINTER_SIZE_IN_WORDS;
 
-			WirePointer.setKindAndTarget(allocation.segment.buffer, resultRefOffset, kind, ptr1);
+			WirePointer.setKindAndTarget(farSegment.buffer, padOffset, kind, ptr1);
 
-			return new AllocateResult(ptr1, resultRefOffset, allocation.segment);
+			return ptr1;
 		} else {
 			WirePointer.setKindAndTarget(segment.buffer, refOffset, kind, ptr);
-			return new AllocateResult(ptr, refOffset, segment);
+			return ptr;
 		}
 	}
 
-	static class FollowBuilderFarsResult {
-
-		public final int ptr;
-		public final long ref;
-		public final SegmentBuilder segment;
-
-		FollowBuilderFarsResult(int ptr, long ref, SegmentBuilder segment) {
-			this.ptr = ptr;
-			this.ref = ref;
-			this.segment = segment;
+	/*
+	 * The segment holding the object that allocate() just pointed `refOffset` at.
+	 */
+	static SegmentBuilder allocatedSegment(SegmentBuilder segment, int refOffset) {
+		long ref = segment.get(refOffset);
+		if (WirePointer.kind(ref) == WirePointer.FAR) {
+			return segment.getArena().getSegment(FarPointer.getSegmentId(ref));
+		} else {
+			return segment;
 		}
 	}
 
-	static FollowBuilderFarsResult followBuilderFars(long ref, int refTarget, SegmentBuilder segment) {
-		//# If `ref` is a far pointer, follow it. On return, `ref` will
-		//# have been updated to point at a WirePointer that contains
-		//# the type information about the target object, and a pointer
-		//# to the object contents is returned. The caller must NOT use
-		//# `ref->target()` as this may or may not actually return a
-		//# valid pointer. `segment` is also updated to point at the
-		//# segment which actually contains the object.
-		//#
-		//# If `ref` is not a far pointer, this simply returns
-		//# `refTarget`. Usually, `refTarget` should be the same as
-		//# `ref->target()`, but may not be in cases where `ref` is
-		//# only a tag.
+	/*
+	 * The offset, within allocatedSegment(), of the pointer describing the object at `ptr` that
+	 * allocate() just pointed `refOffset` at: either `refOffset` itself or the landing pad.
+	 */
+	static int allocatedRefOffset(SegmentBuilder segment, int refOffset, int ptr) {
+		if (WirePointer.kind(segment.get(refOffset)) == WirePointer.FAR) {
+			return ptr - Constants.POINTER_SIZE_IN_WORDS;
+		} else {
+			return refOffset;
+		}
+	}
 
+	//# If `ref` is a far pointer, follow it. The three functions below return, respectively, a
+	//# pointer to the object contents, the WirePointer that contains the type information about
+	//# the target object, and the segment which actually contains the object. The caller must
+	//# NOT use `ref->target()` as this may or may not actually return a valid pointer.
+	//#
+	//# If `ref` is not a far pointer, they simply return `refTarget`, `ref` and `segment`.
+	//# Usually, `refTarget` should be the same as `ref->target()`, but may not be in cases where
+	//# `ref` is only a tag.
+	//
+	// They are separate so that following a pointer does not allocate a result object. Only far
+	// pointers, which are rare, pay for looking up the landing pad more than once.
+
+	static int followBuilderFarsTarget(long ref, int refTarget, SegmentBuilder segment) {
 		if (WirePointer.kind(ref) == WirePointer.FAR) {
-			SegmentBuilder resultSegment = segment.getArena().getSegment(FarPointer.getSegmentId(ref));
-
+			SegmentBuilder padSegment = segment.getArena().getSegment(FarPointer.getSegmentId(ref));
 			int padOffset = FarPointer.positionInSegment(ref);
-			long pad = resultSegment.get(padOffset);
-			if (!FarPointer.isDoubleFar(ref)) { return new FollowBuilderFarsResult(WirePointer.target(padOffset, pad), pad,
-					resultSegment); }
-
-			//# Landing pad is another far pointer. It is followed by a
-			//# tag describing the pointed-to object.
-			int refOffset = padOffset + 1;
-			ref = resultSegment.get(refOffset);
-
-			resultSegment = resultSegment.getArena().getSegment(FarPointer.getSegmentId(pad));
-			return new FollowBuilderFarsResult(FarPointer.positionInSegment(pad), ref, resultSegment);
+			long pad = padSegment.get(padOffset);
+			if (!FarPointer.isDoubleFar(ref)) {
+				return WirePointer.target(padOffset, pad);
+			} else {
+				//# Landing pad is another far pointer. It is followed by a
+				//# tag describing the pointed-to object.
+				return FarPointer.positionInSegment(pad);
+			}
 		} else {
-			return new FollowBuilderFarsResult(refTarget, ref, segment);
+			return refTarget;
 		}
 	}
 
-	static class FollowFarsResult {
-
-		public final int ptr;
-		public final long ref;
-		public final SegmentReader segment;
+	static long followBuilderFarsRef(long ref, SegmentBuilder segment) {
+		if (WirePointer.kind(ref) == WirePointer.FAR) {
+			SegmentBuilder padSegment = segment.getArena().getSegment(FarPointer.getSegmentId(ref));
+			int padOffset = FarPointer.positionInSegment(ref);
+			return padSegment.get(FarPointer.isDoubleFar(ref) ? padOffset + 1 : padOffset);
+		} else {
+			return ref;
+		}
+	}
 
-		FollowFarsResult(int ptr, long ref, SegmentReader segment) {
-			this.ptr = ptr;
-			this.ref = ref;
-			this.segment = segment;
+	static SegmentBuilder followBuilderFarsSegment(long ref, SegmentBuilder segment) {
+		if (WirePointer.kind(ref) == WirePointer.FAR) {
+			SegmentBuilder padSegment = segment.getArena().getSegment(FarPointer.getSegmentId(ref));
+			if (!FarPointer.isDoubleFar(ref)) {
+				return padSegment;
+			} else {
+				long pad = padSegment.get(FarPointer.positionInSegment(ref));
+				return padSegment.getArena().getSegment(FarPointer.getSegmentId(pad));
+			}
+		} else {
+			return segment;
 		}
 	}
 
-	static FollowFarsResult followFars(long ref, int refTarget, SegmentReader segment) {
-		//# If the segment is null, this is an unchecked message,
-		//# so there are no FAR pointers.
+	//# If the segment is null, this is an unchecked message,
+	//# so there are no FAR pointers.
+
+	static int followFarsTarget(long ref, int refTarget, SegmentReader segment) {
 		if (segment != null && WirePointer.kind(ref) == WirePointer.FAR) {
-			SegmentReader resultSegment = segment.arena.tryGetSegment(FarPointer.getSegmentId(ref));
+			SegmentReader padSegment = segment.arena.tryGetSegment(FarPointer.getSegmentId(ref));
 			int padOffset = FarPointer.positionInSegment(ref);
-			long pad = resultSegment.get(padOffset);
-
-			int padWords = FarPointer.isDoubleFar(ref) ? 2 : 1;
+			long pad = padSegment.get(padOffset);
 			// TODO read limiting
-
 			if (!FarPointer.isDoubleFar(ref)) {
-
-				return new FollowFarsResult(WirePointer.target(padOffset, pad), pad, resultSegment);
+				return WirePointer.target(padOffset, pad);
 			} else {
 				//# Landing pad is another far pointer. It is
 				//# followed by a tag describing the pointed-to
 				//# object.
+				return FarPointer.positionInSegment(pad);
+			}
+		} else {
+			return refTarget;
+		}
+	}
 
-				long tag = resultSegment.get(padOffset + 1);
-				resultSegment = resultSegment.arena.tryGetSegment(FarPointer.getSegmentId(pad));
-				return new FollowFarsResult(FarPointer.positionInSegment(pad), tag, resultSegment);
+	static long followFarsRef(long ref, SegmentReader segment) {
+		if (segment != null && WirePointer.kind(ref) == WirePointer.FAR) {
+			SegmentReader padSegment = segment.arena.tryGetSegment(FarPointer.getSegmentId(ref));
+			int padOffset = FarPointer.positionInSegment(ref);
+			return padSegment.get(FarPointer.isDoubleFar(ref) ? padOffset + 1 : padOffset);
+		} else {
+			return ref;
+		}
+	}
+
+	static SegmentReader followFarsSegment(long ref, SegmentReader segment) {
+		if (segment != null && WirePointer.kind(ref) == WirePointer.FAR) {
+			SegmentReader padSegment = segment.arena.tryGetSegment(FarPointer.getSegmentId(ref));
+			if (!FarPointer.isDoubleFar(ref)) {
+				return padSegment;
+			} else {
+				long pad = padSegment.get(FarPointer.positionInSegment(ref));
+				return padSegment.arena.tryGetSegment(FarPointer.getSegmentId(pad));
 			}
 		} else {
-			return new FollowFarsResult(refTarget, ref, segment);
+			return segment;
 		}
 	}
 
@@ -209,9 +238,10 @@ final class WireHelpers {
 					int padOffset = FarPointer.positionInSegment(ref);
 					long pad = segment.get(padOffset);
 					if (FarPointer.isDoubleFar(ref)) {
-						SegmentBuilder otherSegment = segment.getArena().getSegment(FarPointer.getSegmentId(ref));
+						//# The pad points at the object's segment; the word after it is the object's tag.
+						SegmentBuilder otherSegment = segment.getArena().getSegment(FarPointer.getSegmentId(pad));
 						if (otherSegment.isWritable()) {
-							zeroObject(otherSegment, padOffset + 1, FarPointer.positionInSegment(pad));
+							zeroObject(otherSegment, segment.get(padOffset + 1), FarPointer.positionInSegment(pad));
 						}
 						segment.buffer.putLong(padOffset * Constants.BYTES_PER_WORD, 0L);
 						segment.buffer.putLong((padOffset + 1) * Constants.BYTES_PER_WORD, 0L);
@@ -347,7 +377,6 @@ final class WireHelpers {
 		//# OrphanBuilder.
 
 		long src = srcSegment.get(srcOffset);
-		long srcTarget = srcSegment.get(srcTargetOffset);
 
 		if (dstSegment == srcSegment) {
 			//# Same segment, so create a direct pointer.
@@ -369,14 +398,13 @@ final class WireHelpers {
 			if (landingPadOffset == SegmentBuilder.FAILED_ALLOCATION) {
 				//# Darn, need a double-far.
 
-				BuilderArena.AllocateResult allocation = srcSegment.getArena().allocate(2);
-				SegmentBuilder farSegment = allocation.segment;
-				landingPadOffset = allocation.offset;
+				SegmentBuilder farSegment = srcSegment.getArena().allocateWords(2);
+				landingPadOffset = farSegment.pos - 2;
 
 				FarPointer.set(farSegment.buffer, landingPadOffset, false, srcTargetOffset);
 				FarPointer.setSegmentId(farSegment.buffer, landingPadOffset, srcSegment.id);
 
-				WirePointer.setKindWithZeroOffset(farSegment.buffer, landingPadOffset + 1, WirePointer.kind(srcTarget));
+				WirePointer.setKindWithZeroOffset(farSegment.buffer, landingPadOffset + 1, WirePointer.kind(src));
 
 				farSegment.buffer.putInt((landingPadOffset + 1) * Constants.BYTES_PER_WORD + 4,
 						srcSegment.buffer.getInt(srcOffset * Constants.BYTES_PER_WORD + 4));
@@ -385,7 +413,7 @@ final class WireHelpers {
 				FarPointer.setSegmentId(dstSegment.buffer, dstOffset, farSegment.id);
 			} else {
 				//# Simple landing pad is just a pointer.
-				WirePointer.setKindAndTarget(srcSegment.buffer, landingPadOffset, WirePointer.kind(srcTarget), srcTargetOffset);
+				WirePointer.setKindAndTarget(srcSegment.buffer, landingPadOffset, WirePointer.kind(src), srcTargetOffset);
 				srcSegment.buffer.putInt(landingPadOffset * Constants.BYTES_PER_WORD + 4,
 						srcSegment.buffer.getInt(srcOffset * Constants.BYTES_PER_WORD + 4));
 
@@ -397,10 +425,12 @@ final class WireHelpers {
 	}
 
 	static <T> T initStructPointer(StructBuilder.Factory<T> factory, int refOffset, SegmentBuilder segment, StructSize size) {
-		AllocateResult allocation = allocate(refOffset, segment, size.total(), WirePointer.STRUCT);
-		StructPointer.setFromStructSize(allocation.segment.buffer, allocation.refOffset, size);
-		return factory.constructBuilder(allocation.segment, allocation.ptr * Constants.BYTES_PER_WORD,
-				allocation.ptr + size.data, size.data * Constants.BITS_PER_POINTER, size.pointers);
+		int allocPtr = allocate(refOffset, segment, size.total(), WirePointer.STRUCT);
+		SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+		int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
+		StructPointer.setFromStructSize(allocSegment.buffer, allocRefOffset, size);
+		return factory.constructBuilder(allocSegment, allocPtr * Constants.BYTES_PER_WORD,
+				allocPtr + size.data, size.data * Constants.BITS_PER_POINTER, size.pointers);
 	}
 
 	static <T> T getWritableStructPointer(StructBuilder.Factory<T> factory, int refOffset, SegmentBuilder segment,
@@ -414,11 +444,13 @@ final class WireHelpers {
 				throw new Error("unimplemented");
 			}
 		}
-		FollowBuilderFarsResult resolved = followBuilderFars(ref, target, segment);
+		int resolvedPtr = followBuilderFarsTarget(ref, target, segment);
+		long resolvedRef = followBuilderFarsRef(ref, segment);
+		SegmentBuilder resolvedSegment = followBuilderFarsSegment(ref, segment);
 
-		short oldDataSize = StructPointer.dataSize(resolved.ref);
-		short oldPointerCount = StructPointer.ptrCount(resolved.ref);
-		int oldPointerSection = resolved.ptr + oldDataSize;
+		short oldDataSize = StructPointer.dataSize(resolvedRef);
+		short oldPointerCount = StructPointer.ptrCount(resolvedRef);
+		int oldPointerSection = resolvedPtr + oldDataSize;
 
 		if (oldDataSize < size.data || oldPointerCount < size.pointers) {
 			//# The space allocated for this struct is too small. Unlike with readers, we can't just
@@ -432,18 +464,20 @@ final class WireHelpers {
 			//# Don't let allocate() zero out the object just yet.
 			zeroPointerAndFars(segment, refOffset);
 
-			AllocateResult allocation = allocate(refOffset, segment, totalSize, WirePointer.STRUCT);
+			int allocPtr = allocate(refOffset, segment, totalSize, WirePointer.STRUCT);
+			SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+			int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
 
-			StructPointer.set(allocation.segment.buffer, allocation.refOffset, newDataSize, newPointerCount);
+			StructPointer.set(allocSegment.buffer, allocRefOffset, newDataSize, newPointerCount);
 
 			//# Copy data section.
-			memcpy(allocation.segment.buffer, allocation.ptr * Constants.BYTES_PER_WORD, resolved.segment.buffer, resolved.ptr
+			memcpy(allocSegment.buffer, allocPtr * Constants.BYTES_PER_WORD, resolvedSegment.buffer, resolvedPtr
 					* Constants.BYTES_PER_WORD, oldDataSize * Constants.BYTES_PER_WORD);
 
 			//# Copy pointer section.
-			int newPointerSection = allocation.ptr + newDataSize;
+			int newPointerSection = allocPtr + newDataSize;
 			for (int ii = 0; ii < oldPointerCount; ++ii) {
-				transferPointer(allocation.segment, newPointerSection + ii, resolved.segment, oldPointerSection + ii);
+				transferPointer(allocSegment, newPointerSection + ii, resolvedSegment, oldPointerSection + ii);
 			}
 
 			//# Zero out old location.  This has two purposes:
@@ -451,14 +485,14 @@ final class WireHelpers {
 			//#    out as it may contain secrets that the caller intends to remove from the new copy.
 			//# 2) Zeros will be deflated by packing, making this dead memory almost-free if it ever
 			//#    hits the wire.
-			memset(resolved.segment.buffer, resolved.ptr * Constants.BYTES_PER_WORD, (byte) 0, (oldDataSize + oldPointerCount
+			memset(resolvedSegment.buffer, resolvedPtr * Constants.BYTES_PER_WORD, (byte) 0, (oldDataSize + oldPointerCount
 					* Constants.WORDS_PER_POINTER)
 					* Constants.BYTES_PER_WORD);
 
-			return factory.constructBuilder(allocation.segment, allocation.ptr * Constants.BYTES_PER_WORD, newPointerSection,
+			return factory.constructBuilder(allocSegment, allocPtr * Constants.BYTES_PER_WORD, newPointerSection,
 					newDataSize * Constants.BITS_PER_WORD, newPointerCount);
 		} else {
-			return factory.constructBuilder(resolved.segment, resolved.ptr * Constants.BYTES_PER_WORD, oldPointerSection,
+			return factory.constructBuilder(resolvedSegment, resolvedPtr * Constants.BYTES_PER_WORD, oldPointerSection,
 					oldDataSize * Constants.BITS_PER_WORD, oldPointerCount);
 		}
 
@@ -472,11 +506,13 @@ final class WireHelpers {
 		int pointerCount = ElementSize.pointersPerElement(elementSize);
 		int step = dataSize + pointerCount * Constants.BITS_PER_POINTER;
 		int wordCount = roundBitsUpToWords((long) elementCount * (long) step);
-		AllocateResult allocation = allocate(refOffset, segment, wordCount, WirePointer.LIST);
+		int allocPtr = allocate(refOffset, segment, wordCount, WirePointer.LIST);
+		SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+		int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
 
-		ListPointer.set(allocation.segment.buffer, allocation.refOffset, elementSize, elementCount);
+		ListPointer.set(allocSegment.buffer, allocRefOffset, elementSize, elementCount);
 
-		return factory.constructBuilder(allocation.segment, allocation.ptr * Constants.BYTES_PER_WORD, elementCount, step,
+		return factory.constructBuilder(allocSegment, allocPtr * Constants.BYTES_PER_WORD, elementCount, step,
 				dataSize, (short) pointerCount);
 	}
 
@@ -486,15 +522,17 @@ final class WireHelpers {
 
 		//# Allocate the list, prefixed by a single WirePointer.
 		int wordCount = elementCount * wordsPerElement;
-		AllocateResult allocation = allocate(refOffset, segment, Constants.POINTER_SIZE_IN_WORDS + wordCount, WirePointer.LIST);
+		int allocPtr = allocate(refOffset, segment, Constants.POINTER_SIZE_IN_WORDS + wordCount, WirePointer.LIST);
+		SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+		int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
 
 		//# Initialize the pointer.
-		ListPointer.setInlineComposite(allocation.segment.buffer, allocation.refOffset, wordCount);
-		WirePointer.setKindAndInlineCompositeListElementCount(allocation.segment.buffer, allocation.ptr, WirePointer.STRUCT,
+		ListPointer.setInlineComposite(allocSegment.buffer, allocRefOffset, wordCount);
+		WirePointer.setKindAndInlineCompositeListElementCount(allocSegment.buffer, allocPtr, WirePointer.STRUCT,
 				elementCount);
-		StructPointer.setFromStructSize(allocation.segment.buffer, allocation.ptr, elementSize);
+		StructPointer.setFromStructSize(allocSegment.buffer, allocPtr, elementSize);
 
-		return factory.constructBuilder(allocation.segment, (allocation.ptr + 1) * Constants.BYTES_PER_WORD, elementCount,
+		return factory.constructBuilder(allocSegment, (allocPtr + 1) * Constants.BYTES_PER_WORD, elementCount,
 				wordsPerElement * Constants.BITS_PER_WORD, elementSize.data * Constants.BITS_PER_WORD, elementSize.pointers);
 	}
 
@@ -513,12 +551,14 @@ final class WireHelpers {
 		//# non-struct lists, and there is no allowed upgrade path *to*
 		//# a non-struct list, only *from* them.
 
-		FollowBuilderFarsResult resolved = followBuilderFars(origRef, origRefTarget, origSegment);
+		int resolvedPtr = followBuilderFarsTarget(origRef, origRefTarget, origSegment);
+		long resolvedRef = followBuilderFarsRef(origRef, origSegment);
+		SegmentBuilder resolvedSegment = followBuilderFarsSegment(origRef, origSegment);
 
-		if (WirePointer.kind(resolved.ref) != WirePointer.LIST) { throw new DecodeException(
+		if (WirePointer.kind(resolvedRef) != WirePointer.LIST) { throw new DecodeException(
 				"Called getList{Field,Element}() but existing pointer is not a list"); }
 
-		byte oldSize = ListPointer.elementSize(resolved.ref);
+		byte oldSize = ListPointer.elementSize(resolvedRef);
 
 		if (oldSize == ElementSize.INLINE_COMPOSITE) {
 			//# The existing element size is InlineComposite, which
@@ -541,8 +581,8 @@ final class WireHelpers {
 
 			int step = dataSize + pointerCount * Constants.BITS_PER_POINTER;
 
-			return factory.constructBuilder(resolved.segment, resolved.ptr * Constants.BYTES_PER_WORD,
-					ListPointer.elementCount(resolved.ref), step, dataSize, (short) pointerCount);
+			return factory.constructBuilder(resolvedSegment, resolvedPtr * Constants.BYTES_PER_WORD,
+					ListPointer.elementCount(resolvedRef), step, dataSize, (short) pointerCount);
 		}
 	}
 
@@ -555,16 +595,18 @@ final class WireHelpers {
 
 		//# We must verify that the pointer has the right size and potentially upgrade it if not.
 
-		FollowBuilderFarsResult resolved = followBuilderFars(origRef, origRefTarget, origSegment);
-		if (WirePointer.kind(resolved.ref) != WirePointer.LIST) { throw new DecodeException(
+		int resolvedPtr = followBuilderFarsTarget(origRef, origRefTarget, origSegment);
+		long resolvedRef = followBuilderFarsRef(origRef, origSegment);
+		SegmentBuilder resolvedSegment = followBuilderFarsSegment(origRef, origSegment);
+		if (WirePointer.kind(resolvedRef) != WirePointer.LIST) { throw new DecodeException(
 				"Called getList{Field,Element}() but existing pointer is not a list"); }
 
-		byte oldSize = ListPointer.elementSize(resolved.ref);
+		byte oldSize = ListPointer.elementSize(resolvedRef);
 
 		if (oldSize == ElementSize.INLINE_COMPOSITE) {
 			//# Existing list is INLINE_COMPOSITE, but we need to verify that the sizes match.
-			long oldTag = resolved.segment.get(resolved.ptr);
-			int oldPtr = resolved.ptr + Constants.POINTER_SIZE_IN_WORDS;
+			long oldTag = resolvedSegment.get(resolvedPtr);
+			int oldPtr = resolvedPtr + Constants.POINTER_SIZE_IN_WORDS;
 			if (WirePointer.kind(oldTag) != WirePointer.STRUCT) { throw new DecodeException(
 					"INLINE_COMPOSITE list with non-STRUCT elements not supported."); }
 			int oldDataSize = StructPointer.dataSize(oldTag);
@@ -574,7 +616,7 @@ final class WireHelpers {
 
 			if (oldDataSize >= elementSize.data && oldPointerCount >= elementSize.pointers) {
 				//# Old size is at least as large as we need. Ship it.
-				return factory.constructBuilder(resolved.segment, oldPtr * Constants.BYTES_PER_WORD, elementCount, oldStep
+				return factory.constructBuilder(resolvedSegment, oldPtr * Constants.BYTES_PER_WORD, elementCount, oldStep
 						* Constants.BITS_PER_WORD, oldDataSize * Constants.BITS_PER_WORD, oldPointerCount);
 			}
 
@@ -589,29 +631,31 @@ final class WireHelpers {
 			//# Don't let allocate() zero out the object just yet.
 			zeroPointerAndFars(origSegment, origRefOffset);
 
-			AllocateResult allocation = allocate(origRefOffset, origSegment, totalSize + Constants.POINTER_SIZE_IN_WORDS,
+			int allocPtr = allocate(origRefOffset, origSegment, totalSize + Constants.POINTER_SIZE_IN_WORDS,
 					WirePointer.LIST);
+			SegmentBuilder allocSegment = allocatedSegment(origSegment, origRefOffset);
+			int allocRefOffset = allocatedRefOffset(origSegment, origRefOffset, allocPtr);
 
-			ListPointer.setInlineComposite(allocation.segment.buffer, allocation.refOffset, totalSize);
+			ListPointer.setInlineComposite(allocSegment.buffer, allocRefOffset, totalSize);
 
-			long tag = allocation.segment.get(allocation.ptr);
-			WirePointer.setKindAndInlineCompositeListElementCount(allocation.segment.buffer, allocation.ptr, WirePointer.STRUCT,
+			long tag = allocSegment.get(allocPtr);
+			WirePointer.setKindAndInlineCompositeListElementCount(allocSegment.buffer, allocPtr, WirePointer.STRUCT,
 					elementCount);
-			StructPointer.set(allocation.segment.buffer, allocation.ptr, newDataSize, newPointerCount);
-			int newPtr = allocation.ptr + Constants.POINTER_SIZE_IN_WORDS;
+			StructPointer.set(allocSegment.buffer, allocPtr, newDataSize, newPointerCount);
+			int newPtr = allocPtr + Constants.POINTER_SIZE_IN_WORDS;
 
 			int src = oldPtr;
 			int dst = newPtr;
 			for (int ii = 0; ii < elementCount; ++ii) {
 				//# Copy data section.
-				memcpy(allocation.segment.buffer, dst * Constants.BYTES_PER_WORD, resolved.segment.buffer, src
+				memcpy(allocSegment.buffer, dst * Constants.BYTES_PER_WORD, resolvedSegment.buffer, src
 						* Constants.BYTES_PER_WORD, oldDataSize * Constants.BYTES_PER_WORD);
 
 				//# Copy pointer section.
 				int newPointerSection = dst + newDataSize;
 				int oldPointerSection = src + oldDataSize;
 				for (int jj = 0; jj < oldPointerCount; ++jj) {
-					transferPointer(allocation.segment, newPointerSection + jj, resolved.segment, oldPointerSection + jj);
+					transferPointer(allocSegment, newPointerSection + jj, resolvedSegment, oldPointerSection + jj);
 				}
 
 				dst += newStep;
@@ -619,10 +663,10 @@ final class WireHelpers {
 			}
 
 			//# Zero out old location. See explanation in getWritableStructPointer().
-			memset(resolved.segment.buffer, resolved.ptr * Constants.BYTES_PER_WORD, (byte) 0, oldStep * elementCount
+			memset(resolvedSegment.buffer, resolvedPtr * Constants.BYTES_PER_WORD, (byte) 0, oldStep * elementCount
 					* Constants.BYTES_PER_WORD);
 
-			return factory.constructBuilder(allocation.segment, newPtr * Constants.BYTES_PER_WORD, elementCount, newStep
+			return factory.constructBuilder(allocSegment, newPtr * Constants.BYTES_PER_WORD, elementCount, newStep
 					* Constants.BITS_PER_WORD, newDataSize * Constants.BITS_PER_WORD, newPointerCount);
 		} else {
 			//# We're upgrading from a non-struct list.
@@ -657,31 +701,33 @@ final class WireHelpers {
 				//# Don't let allocate() zero out the object just yet.
 				zeroPointerAndFars(origSegment, origRefOffset);
 
-				AllocateResult allocation = allocate(origRefOffset, origSegment, totalWords + Constants.POINTER_SIZE_IN_WORDS,
+				int allocPtr = allocate(origRefOffset, origSegment, totalWords + Constants.POINTER_SIZE_IN_WORDS,
 						WirePointer.LIST);
+				SegmentBuilder allocSegment = allocatedSegment(origSegment, origRefOffset);
+				int allocRefOffset = allocatedRefOffset(origSegment, origRefOffset, allocPtr);
 
-				ListPointer.setInlineComposite(allocation.segment.buffer, allocation.refOffset, totalWords);
+				ListPointer.setInlineComposite(allocSegment.buffer, allocRefOffset, totalWords);
 
-				long tag = allocation.segment.get(allocation.ptr);
-				WirePointer.setKindAndInlineCompositeListElementCount(allocation.segment.buffer, allocation.ptr,
+				long tag = allocSegment.get(allocPtr);
+				WirePointer.setKindAndInlineCompositeListElementCount(allocSegment.buffer, allocPtr,
 						WirePointer.STRUCT, elementCount);
-				StructPointer.set(allocation.segment.buffer, allocation.ptr, newDataSize, newPointerCount);
-				int newPtr = allocation.ptr + Constants.POINTER_SIZE_IN_WORDS;
+				StructPointer.set(allocSegment.buffer, allocPtr, newDataSize, newPointerCount);
+				int newPtr = allocPtr + Constants.POINTER_SIZE_IN_WORDS;
 
 				if (oldSize == ElementSize.POINTER) {
 					int dst = newPtr + newDataSize;
-					int src = resolved.ptr;
+					int src = resolvedPtr;
 					for (int ii = 0; ii < elementCount; ++ii) {
-						transferPointer(origSegment, dst, resolved.segment, src);
+						transferPointer(origSegment, dst, resolvedSegment, src);
 						dst += newStep / Constants.WORDS_PER_POINTER;
 						src += 1;
 					}
 				} else {
 					int dst = newPtr;
-					int srcByteOffset = resolved.ptr * Constants.BYTES_PER_WORD;
+					int srcByteOffset = resolvedPtr * Constants.BYTES_PER_WORD;
 					int oldByteStep = oldDataSize / Constants.BITS_PER_BYTE;
 					for (int ii = 0; ii < elementCount; ++ii) {
-						memcpy(allocation.segment.buffer, dst * Constants.BYTES_PER_WORD, resolved.segment.buffer, srcByteOffset,
+						memcpy(allocSegment.buffer, dst * Constants.BYTES_PER_WORD, resolvedSegment.buffer, srcByteOffset,
 								oldByteStep);
 						srcByteOffset += oldByteStep;
 						dst += newStep;
@@ -689,10 +735,10 @@ final class WireHelpers {
 				}
 
 				//# Zero out old location. See explanation in getWritableStructPointer().
-				memset(resolved.segment.buffer, resolved.ptr * Constants.BYTES_PER_WORD, (byte) 0, roundBitsUpToBytes(oldStep
+				memset(resolvedSegment.buffer, resolvedPtr * Constants.BYTES_PER_WORD, (byte) 0, roundBitsUpToBytes(oldStep
 						* elementCount));
 
-				return factory.constructBuilder(allocation.segment, newPtr * Constants.BYTES_PER_WORD, elementCount, newStep
+				return factory.constructBuilder(allocSegment, newPtr * Constants.BYTES_PER_WORD, elementCount, newStep
 						* Constants.BITS_PER_WORD, newDataSize * Constants.BITS_PER_WORD, newPointerCount);
 			}
 		}
@@ -704,12 +750,14 @@ final class WireHelpers {
 		int byteSize = size + 1;
 
 		//# Allocate the space.
-		AllocateResult allocation = allocate(refOffset, segment, roundBytesUpToWords(byteSize), WirePointer.LIST);
+		int allocPtr = allocate(refOffset, segment, roundBytesUpToWords(byteSize), WirePointer.LIST);
+		SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+		int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
 
 		//# Initialize the pointer.
-		ListPointer.set(allocation.segment.buffer, allocation.refOffset, ElementSize.BYTE, byteSize);
+		ListPointer.set(allocSegment.buffer, allocRefOffset, ElementSize.BYTE, byteSize);
 
-		return new Text.Builder(allocation.segment.buffer, allocation.ptr * Constants.BYTES_PER_WORD, size);
+		return new Text.Builder(allocSegment.buffer, allocPtr * Constants.BYTES_PER_WORD, size);
 	}
 
 	static Text.Builder setTextPointer(int refOffset, SegmentBuilder segment, Text.Reader value) {
@@ -741,29 +789,33 @@ final class WireHelpers {
 		}
 
 		int refTarget = WirePointer.target(refOffset, ref);
-		FollowBuilderFarsResult resolved = followBuilderFars(ref, refTarget, segment);
+		int resolvedPtr = followBuilderFarsTarget(ref, refTarget, segment);
+		long resolvedRef = followBuilderFarsRef(ref, segment);
+		SegmentBuilder resolvedSegment = followBuilderFarsSegment(ref, segment);
 
-		if (WirePointer.kind(resolved.ref) != WirePointer.LIST) { throw new DecodeException(
+		if (WirePointer.kind(resolvedRef) != WirePointer.LIST) { throw new DecodeException(
 				"Called getText{Field,Element} but existing pointer is not a list."); }
-		if (ListPointer.elementSize(resolved.ref) != ElementSize.BYTE) { throw new DecodeException(
+		if (ListPointer.elementSize(resolvedRef) != ElementSize.BYTE) { throw new DecodeException(
 				"Called getText{Field,Element} but existing list pointer is not byte-sized."); }
 
-		int size = ListPointer.elementCount(resolved.ref);
-		if (size == 0 || resolved.segment.buffer.get(resolved.ptr * Constants.BYTES_PER_WORD + size - 1) != 0) { throw new DecodeException(
+		int size = ListPointer.elementCount(resolvedRef);
+		if (size == 0 || resolvedSegment.buffer.get(resolvedPtr * Constants.BYTES_PER_WORD + size - 1) != 0) { throw new DecodeException(
 				"Text blob missing NUL terminator."); }
-		return new Text.Builder(resolved.segment.buffer, resolved.ptr * Constants.BYTES_PER_WORD, size - 1);
+		return new Text.Builder(resolvedSegment.buffer, resolvedPtr * Constants.BYTES_PER_WORD, size - 1);
 
 	}
 
 	// size is in bytes
 	static Data.Builder initDataPointer(int refOffset, SegmentBuilder segment, int size) {
 		//# Allocate the space.
-		AllocateResult allocation = allocate(refOffset, segment, roundBytesUpToWords(size), WirePointer.LIST);
+		int allocPtr = allocate(refOffset, segment, roundBytesUpToWords(size), WirePointer.LIST);
+		SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+		int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
 
 		//# Initialize the pointer.
-		ListPointer.set(allocation.segment.buffer, allocation.refOffset, ElementSize.BYTE, size);
+		ListPointer.set(allocSegment.buffer, allocRefOffset, ElementSize.BYTE, size);
 
-		return new Data.Builder(allocation.segment.buffer, allocation.ptr * Constants.BYTES_PER_WORD, size);
+		return new Data.Builder(allocSegment.buffer, allocPtr * Constants.BYTES_PER_WORD, size);
 	}
 
 	static Data.Builder setDataPointer(int refOffset, SegmentBuilder segment, Data.Reader value) {
@@ -794,15 +846,17 @@ final class WireHelpers {
 		}
 
 		int refTarget = WirePointer.target(refOffset, ref);
-		FollowBuilderFarsResult resolved = followBuilderFars(ref, refTarget, segment);
+		int resolvedPtr = followBuilderFarsTarget(ref, refTarget, segment);
+		long resolvedRef = followBuilderFarsRef(ref, segment);
+		SegmentBuilder resolvedSegment = followBuilderFarsSegment(ref, segment);
 
-		if (WirePointer.kind(resolved.ref) != WirePointer.LIST) { throw new DecodeException(
+		if (WirePointer.kind(resolvedRef) != WirePointer.LIST) { throw new DecodeException(
 				"Called getData{Field,Element} but existing pointer is not a list."); }
-		if (ListPointer.elementSize(resolved.ref) != ElementSize.BYTE) { throw new DecodeException(
+		if (ListPointer.elementSize(resolvedRef) != ElementSize.BYTE) { throw new DecodeException(
 				"Called getData{Field,Element} but existing list pointer is not byte-sized."); }
 
-		return new Data.Builder(resolved.segment.buffer, resolved.ptr * Constants.BYTES_PER_WORD,
-				ListPointer.elementCount(resolved.ref));
+		return new Data.Builder(resolvedSegment.buffer, resolvedPtr * Constants.BYTES_PER_WORD,
+				ListPointer.elementCount(resolvedRef));
 
 	}
 
@@ -822,17 +876,19 @@ final class WireHelpers {
 		if (nestingLimit <= 0) { throw new DecodeException("Message is too deeply nested or contains cycles."); }
 
 		int refTarget = WirePointer.target(refOffset, ref);
-		FollowFarsResult resolved = followFars(ref, refTarget, segment);
+		int resolvedPtr = followFarsTarget(ref, refTarget, segment);
+		long resolvedRef = followFarsRef(ref, segment);
+		SegmentReader resolvedSegment = followFarsSegment(ref, segment);
 
-		int dataSizeWords = StructPointer.dataSize(resolved.ref);
+		int dataSizeWords = StructPointer.dataSize(resolvedRef);
 
-		if (WirePointer.kind(resolved.ref) != WirePointer.STRUCT) { throw new DecodeException(
+		if (WirePointer.kind(resolvedRef) != WirePointer.STRUCT) { throw new DecodeException(
 				"Message contains non-struct pointer where struct pointer was expected."); }
 
-		resolved.segment.arena.checkReadLimit(StructPointer.wordSize(resolved.ref));
+		resolvedSegment.arena.checkReadLimit(StructPointer.wordSize(resolvedRef));
 
-		return factory.constructReader(resolved.segment, resolved.ptr * Constants.BYTES_PER_WORD, (resolved.ptr + dataSizeWords),
-				dataSizeWords * Constants.BITS_PER_WORD, StructPointer.ptrCount(resolved.ref), nestingLimit - 1);
+		return factory.constructReader(resolvedSegment, resolvedPtr * Constants.BYTES_PER_WORD, (resolvedPtr + dataSizeWords),
+				dataSizeWords * Constants.BITS_PER_WORD, StructPointer.ptrCount(resolvedRef), nestingLimit - 1);
 
 	}
 
@@ -840,21 +896,23 @@ final class WireHelpers {
 		short dataSize = (short) roundBitsUpToWords(value.dataSize);
 		int totalSize = dataSize + value.pointerCount * Constants.POINTER_SIZE_IN_WORDS;
 
-		AllocateResult allocation = allocate(refOffset, segment, totalSize, WirePointer.STRUCT);
-		StructPointer.set(allocation.segment.buffer, allocation.refOffset, dataSize, value.pointerCount);
+		int allocPtr = allocate(refOffset, segment, totalSize, WirePointer.STRUCT);
+		SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+		int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
+		StructPointer.set(allocSegment.buffer, allocRefOffset, dataSize, value.pointerCount);
 
 		if (value.dataSize == 1) {
 			throw new Error("single bit case not handled");
 		} else {
-			memcpy(allocation.segment.buffer, allocation.ptr * Constants.BYTES_PER_WORD, value.segment.buffer, value.data,
+			memcpy(allocSegment.buffer, allocPtr * Constants.BYTES_PER_WORD, value.segment.buffer, value.data,
 					value.dataSize / Constants.BITS_PER_BYTE);
 		}
 
-		int pointerSection = allocation.ptr + dataSize;
+		int pointerSection = allocPtr + dataSize;
 		for (int i = 0; i < value.pointerCount; ++i) {
-			copyPointer(allocation.segment, pointerSection + i, value.segment, value.pointers + i, value.nestingLimit);
+			copyPointer(allocSegment, pointerSection + i, value.segment, value.pointers + i, value.nestingLimit);
 		}
-		return allocation.segment;
+		return allocSegment;
 	};
 
 	static SegmentBuilder setListPointer(SegmentBuilder segment, int refOffset, ListReader value) {
@@ -862,13 +920,15 @@ final class WireHelpers {
 
 		if (value.step <= Constants.BITS_PER_WORD) {
 			//# List of non-structs.
-			AllocateResult allocation = allocate(refOffset, segment, totalSize, WirePointer.LIST);
+			int allocPtr = allocate(refOffset, segment, totalSize, WirePointer.LIST);
+			SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+			int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
 
 			if (value.structPointerCount == 1) {
 				//# List of pointers.
-				ListPointer.set(allocation.segment.buffer, allocation.refOffset, ElementSize.POINTER, value.elementCount);
+				ListPointer.set(allocSegment.buffer, allocRefOffset, ElementSize.POINTER, value.elementCount);
 				for (int i = 0; i < value.elementCount; ++i) {
-					copyPointer(allocation.segment, allocation.ptr + i, value.segment, value.ptr / Constants.BYTES_PER_WORD + i,
+					copyPointer(allocSegment, allocPtr + i, value.segment, value.ptr / Constants.BYTES_PER_WORD + i,
 							value.nestingLimit);
 				}
 			} else {
@@ -897,45 +957,54 @@ final class WireHelpers {
 						throw new Error("invalid list step size: " + value.step);
 				}
 
-				ListPointer.set(allocation.segment.buffer, allocation.refOffset, elementSize, value.elementCount);
-				memcpy(allocation.segment.buffer, allocation.ptr * Constants.BYTES_PER_WORD, value.segment.buffer, value.ptr,
+				ListPointer.set(allocSegment.buffer, allocRefOffset, elementSize, value.elementCount);
+				memcpy(allocSegment.buffer, allocPtr * Constants.BYTES_PER_WORD, value.segment.buffer, value.ptr,
 						totalSize * Constants.BYTES_PER_WORD);
 			}
-			return allocation.segment;
+			return allocSegment;
 		} else {
 			//# List of structs.
-			AllocateResult allocation = allocate(refOffset, segment, totalSize + Constants.POINTER_SIZE_IN_WORDS,
+			int allocPtr = allocate(refOffset, segment, totalSize + Constants.POINTER_SIZE_IN_WORDS,
 					WirePointer.LIST);
-			ListPointer.setInlineComposite(allocation.segment.buffer, allocation.refOffset, totalSize);
+			SegmentBuilder allocSegment = allocatedSegment(segment, refOffset);
+			int allocRefOffset = allocatedRefOffset(segment, refOffset, allocPtr);
+			ListPointer.setInlineComposite(allocSegment.buffer, allocRefOffset, totalSize);
 			short dataSize = (short) roundBitsUpToWords(value.structDataSize);
 			short pointerCount = value.structPointerCount;
 
-			WirePointer.setKindAndInlineCompositeListElementCount(allocation.segment.buffer, allocation.ptr, WirePointer.STRUCT,
+			WirePointer.setKindAndInlineCompositeListElementCount(allocSegment.buffer, allocPtr, WirePointer.STRUCT,
 					value.elementCount);
-			StructPointer.set(allocation.segment.buffer, allocation.ptr, dataSize, pointerCount);
+			StructPointer.set(allocSegment.buffer, allocPtr, dataSize, pointerCount);
 
-			int dstOffset = allocation.ptr + Constants.POINTER_SIZE_IN_WORDS;
+			int dstOffset = allocPtr + Constants.POINTER_SIZE_IN_WORDS;
 			int srcOffset = value.ptr / Constants.BYTES_PER_WORD;
 
 			for (int i = 0; i < value.elementCount; ++i) {
-				memcpy(allocation.segment.buffer, dstOffset * Constants.BYTES_PER_WORD, value.segment.buffer, srcOffset
+				memcpy(allocSegment.buffer, dstOffset * Constants.BYTES_PER_WORD, value.segment.buffer, srcOffset
 						* Constants.BYTES_PER_WORD, value.structDataSize / Constants.BITS_PER_BYTE);
 				dstOffset += dataSize;
 				srcOffset += dataSize;
 
 				for (int j = 0; j < pointerCount; ++j) {
-					copyPointer(allocation.segment, dstOffset, value.segment, srcOffset, value.nestingLimit);
+					copyPointer(allocSegment, dstOffset, value.segment, srcOffset, value.nestingLimit);
 					dstOffset += Constants.POINTER_SIZE_IN_WORDS;
 					srcOffset += Constants.POINTER_SIZE_IN_WORDS;
 				}
 			}
-			return allocation.segment;
+			return allocSegment;
 		}
 	}
 
 	static void memset(ByteBuffer dstBuffer, int dstByteOffset, byte value, int length) {
-		// TODO we can probably do this faster
-		for (int ii = dstByteOffset; ii < dstByteOffset + length; ++ii) {
+		int end = dstByteOffset + length;
+		int ii = dstByteOffset;
+		if (value == 0) {
+			// zeroing is by far the common case; do it a word at a time
+			for (; ii + Constants.BYTES_PER_WORD <= end; ii += Constants.BYTES_PER_WORD) {
+				dstBuffer.putLong(ii, 0L);
+			}
+		}
+		for (; ii < end; ++ii) {
 			dstBuffer.put(ii, value);
 		}
 	}
@@ -964,29 +1033,31 @@ final class WireHelpers {
 		}
 
 		int srcTarget = WirePointer.target(srcOffset, srcRef);
-		FollowFarsResult resolved = followFars(srcRef, srcTarget, srcSegment);
+		int resolvedPtr = followFarsTarget(srcRef, srcTarget, srcSegment);
+		long resolvedRef = followFarsRef(srcRef, srcSegment);
+		SegmentReader resolvedSegment = followFarsSegment(srcRef, srcSegment);
 
-		switch (WirePointer.kind(resolved.ref)) {
+		switch (WirePointer.kind(resolvedRef)) {
 			case WirePointer.STRUCT:
 				if (nestingLimit <= 0) { throw new DecodeException(
 						"Message is too deeply nested or contains cycles. See org.capnproto.ReaderOptions."); }
-				resolved.segment.arena.checkReadLimit(StructPointer.wordSize(resolved.ref));
+				resolvedSegment.arena.checkReadLimit(StructPointer.wordSize(resolvedRef));
 				return setStructPointer(
 						dstSegment,
 						dstOffset,
-						new StructReader(resolved.segment, resolved.ptr * Constants.BYTES_PER_WORD, resolved.ptr
-								+ StructPointer.dataSize(resolved.ref), StructPointer.dataSize(resolved.ref)
-								* Constants.BITS_PER_WORD, StructPointer.ptrCount(resolved.ref), nestingLimit - 1));
+						new StructReader(resolvedSegment, resolvedPtr * Constants.BYTES_PER_WORD, resolvedPtr
+								+ StructPointer.dataSize(resolvedRef), StructPointer.dataSize(resolvedRef)
+								* Constants.BITS_PER_WORD, StructPointer.ptrCount(resolvedRef), nestingLimit - 1));
 			case WirePointer.LIST:
-				byte elementSize = ListPointer.elementSize(resolved.ref);
+				byte elementSize = ListPointer.elementSize(resolvedRef);
 				if (nestingLimit <= 0) { throw new DecodeException(
 						"Message is too deeply nested or contains cycles. See org.capnproto.ReaderOptions."); }
 				if (elementSize == ElementSize.INLINE_COMPOSITE) {
-					int wordCount = ListPointer.inlineCompositeWordCount(resolved.ref);
-					long tag = resolved.segment.get(resolved.ptr);
-					int ptr = resolved.ptr + 1;
+					int wordCount = ListPointer.inlineCompositeWordCount(resolvedRef);
+					long tag = resolvedSegment.get(resolvedPtr);
+					int ptr = resolvedPtr + 1;
 
-					resolved.segment.arena.checkReadLimit(wordCount + 1);
+					resolvedSegment.arena.checkReadLimit(wordCount + 1);
 
 					if (WirePointer.kind(tag) != WirePointer.STRUCT) { throw new DecodeException(
 							"INLINE_COMPOSITE lists of non-STRUCT type are not supported."); }
@@ -999,28 +1070,28 @@ final class WireHelpers {
 					if (wordsPerElement == 0) {
 						// Watch out for lists of zero-sized structs, which can claim to be arbitrarily
 						// large without having sent actual data.
-						resolved.segment.arena.checkReadLimit(elementCount);
+						resolvedSegment.arena.checkReadLimit(elementCount);
 					}
 
-					return setListPointer(dstSegment, dstOffset, new ListReader(resolved.segment, ptr * Constants.BYTES_PER_WORD,
+					return setListPointer(dstSegment, dstOffset, new ListReader(resolvedSegment, ptr * Constants.BYTES_PER_WORD,
 							elementCount, wordsPerElement * Constants.BITS_PER_WORD, StructPointer.dataSize(tag)
 									* Constants.BITS_PER_WORD, StructPointer.ptrCount(tag), nestingLimit - 1));
 				} else {
 					int dataSize = ElementSize.dataBitsPerElement(elementSize);
 					short pointerCount = ElementSize.pointersPerElement(elementSize);
 					int step = dataSize + pointerCount * Constants.BITS_PER_POINTER;
-					int elementCount = ListPointer.elementCount(resolved.ref);
+					int elementCount = ListPointer.elementCount(resolvedRef);
 					int wordCount = roundBitsUpToWords((long) elementCount * step);
 
-					resolved.segment.arena.checkReadLimit(wordCount);
+					resolvedSegment.arena.checkReadLimit(wordCount);
 
 					if (elementSize == ElementSize.VOID) {
 						// Watch out for lists of void, which can claim to be arbitrarily large without
 						// having sent actual data.
-						resolved.segment.arena.checkReadLimit(elementCount);
+						resolvedSegment.arena.checkReadLimit(elementCount);
 					}
 
-					return setListPointer(dstSegment, dstOffset, new ListReader(resolved.segment, resolved.ptr
+					return setListPointer(dstSegment, dstOffset, new ListReader(resolvedSegment, resolvedPtr
 							* Constants.BYTES_PER_WORD, elementCount, step, dataSize, pointerCount, nestingLimit - 1));
 				}
 
@@ -1032,6 +1103,207 @@ final class WireHelpers {
 		throw new Error("unreachable");
 	}
 
+	/*
+	 * The number of words copyPointer() allocates for a copy of the object at `refOffset` and
+	 * everything reachable from it. Empty structs and null pointers take no words.
+	 */
+	static long totalSize(SegmentReader segment, int refOffset, int nestingLimit) {
+		long ref = segment.get(refOffset);
+		if (WirePointer.isNull(ref)) { return 0; }
+
+		if (nestingLimit <= 0) { throw new DecodeException(
+				"Message is too deeply nested or contains cycles. See org.capnproto.ReaderOptions."); }
+
+		int refTarget = WirePointer.target(refOffset, ref);
+		int resolvedPtr = followFarsTarget(ref, refTarget, segment);
+		long resolvedRef = followFarsRef(ref, segment);
+		SegmentReader resolvedSegment = followFarsSegment(ref, segment);
+
+		switch (WirePointer.kind(resolvedRef)) {
+			case WirePointer.STRUCT: {
+				short dataSize = StructPointer.dataSize(resolvedRef);
+				short pointerCount = StructPointer.ptrCount(resolvedRef);
+				long result = dataSize + pointerCount * Constants.POINTER_SIZE_IN_WORDS;
+				int pointerSection = resolvedPtr + dataSize;
+				for (int ii = 0; ii < pointerCount; ++ii) {
+					result += totalSize(resolvedSegment, pointerSection + ii, nestingLimit - 1);
+				}
+				return result;
+			}
+			case WirePointer.LIST: {
+				byte elementSize = ListPointer.elementSize(resolvedRef);
+				if (elementSize == ElementSize.INLINE_COMPOSITE) {
+					long tag = resolvedSegment.get(resolvedPtr);
+					if (WirePointer.kind(tag) != WirePointer.STRUCT) { throw new DecodeException(
+							"INLINE_COMPOSITE lists of non-STRUCT type are not supported."); }
+					int elementCount = WirePointer.inlineCompositeListElementCount(tag);
+					short dataSize = StructPointer.dataSize(tag);
+					short pointerCount = StructPointer.ptrCount(tag);
+					long result = Constants.POINTER_SIZE_IN_WORDS + (long) elementCount * StructPointer.wordSize(tag);
+					int pos = resolvedPtr + Constants.POINTER_SIZE_IN_WORDS;
+					for (int ii = 0; ii < elementCount; ++ii) {
+						pos += dataSize;
+						for (int jj = 0; jj < pointerCount; ++jj) {
+							result += totalSize(resolvedSegment, pos, nestingLimit - 1);
+							pos += Constants.POINTER_SIZE_IN_WORDS;
+						}
+					}
+					return result;
+				} else if (elementSize == ElementSize.POINTER) {
+					int elementCount = ListPointer.elementCount(resolvedRef);
+					long result = elementCount * Constants.POINTER_SIZE_IN_WORDS;
+					for (int ii = 0; ii < elementCount; ++ii) {
+						result += totalSize(resolvedSegment, resolvedPtr + ii, nestingLimit - 1);
+					}
+					return result;
+				} else {
+					return roundBitsUpToWords((long) ListPointer.elementCount(resolvedRef)
+							* ElementSize.dataBitsPerElement(elementSize));
+				}
+			}
+			case WirePointer.FAR:
+				throw new Error("Far pointer should have been handled above.");
+			case WirePointer.OTHER:
+				throw new Error("totalSize is unimplemented");
+		}
+		throw new Error("unreachable");
+	}
+
+	/*
+	 * Checks everything a reader could run into below the pointer at `refOffset`: that every
+	 * pointer lands inside its segment, that far pointers lead to valid landing pads and that
+	 * lists fit the space they claim. Each object visited is charged to `budget[0]`, in words,
+	 * the way readers charge the traversal limit.
+	 */
+	static void validatePointer(SegmentReader segment, int refOffset, int nestingLimit, long[] budget) {
+		long ref = segment.get(refOffset);
+		if (WirePointer.isNull(ref)) { return; }
+
+		if (nestingLimit <= 0) { throw new DecodeException(
+				"Message is too deeply nested or contains cycles. See org.capnproto.ReaderOptions."); }
+
+		int target;
+		long resolvedRef;
+		SegmentReader resolvedSegment;
+		if (WirePointer.kind(ref) == WirePointer.FAR) {
+			SegmentReader padSegment = validSegment(segment, FarPointer.getSegmentId(ref));
+			int padOffset = FarPointer.positionInSegment(ref);
+			checkBounds(padSegment, padOffset, FarPointer.isDoubleFar(ref) ? 2 : 1);
+			long pad = padSegment.get(padOffset);
+			if (!FarPointer.isDoubleFar(ref)) {
+				if (WirePointer.kind(pad) == WirePointer.FAR) { throw new DecodeException(
+						"Message contains a far pointer whose landing pad is another far pointer."); }
+				resolvedSegment = padSegment;
+				resolvedRef = pad;
+				target = signedTarget(padOffset, pad);
+			} else {
+				if (WirePointer.kind(pad) != WirePointer.FAR || FarPointer.isDoubleFar(pad)) { throw new DecodeException(
+						"Message contains a double-far pointer whose landing pad is not a far pointer."); }
+				resolvedSegment = validSegment(padSegment, FarPointer.getSegmentId(pad));
+				resolvedRef = padSegment.get(padOffset + 1);
+				target = FarPointer.positionInSegment(pad);
+			}
+		} else {
+			resolvedSegment = segment;
+			resolvedRef = ref;
+			target = signedTarget(refOffset, ref);
+		}
+
+		switch (WirePointer.kind(resolvedRef)) {
+			case WirePointer.STRUCT: {
+				checkStructSize(resolvedRef);
+				int words = StructPointer.wordSize(resolvedRef);
+				checkBounds(resolvedSegment, target, words);
+				chargeBudget(budget, words);
+				int pointerSection = target + StructPointer.dataSize(resolvedRef);
+				for (int ii = 0; ii < StructPointer.ptrCount(resolvedRef); ++ii) {
+					validatePointer(resolvedSegment, pointerSection + ii, nestingLimit - 1, budget);
+				}
+				return;
+			}
+			case WirePointer.LIST: {
+				byte elementSize = ListPointer.elementSize(resolvedRef);
+				if (elementSize == ElementSize.INLINE_COMPOSITE) {
+					int wordCount = ListPointer.inlineCompositeWordCount(resolvedRef);
+					checkBounds(resolvedSegment, target, wordCount + 1L);
+					chargeBudget(budget, wordCount + 1L);
+
+					long tag = resolvedSegment.get(target);
+					if (WirePointer.kind(tag) != WirePointer.STRUCT) { throw new DecodeException(
+							"INLINE_COMPOSITE lists of non-STRUCT type are not supported."); }
+					checkStructSize(tag);
+					int elementCount = WirePointer.inlineCompositeListElementCount(tag);
+					int wordsPerElement = StructPointer.wordSize(tag);
+					if ((long) elementCount * wordsPerElement > wordCount) { throw new DecodeException(
+							"INLINE_COMPOSITE list's elements overrun its word count."); }
+					if (wordsPerElement == 0) {
+						chargeBudget(budget, elementCount);
+					}
+
+					int pos = target + Constants.POINTER_SIZE_IN_WORDS;
+					for (int ii = 0; ii < elementCount; ++ii) {
+						int pointerSection = pos + StructPointer.dataSize(tag);
+						for (int jj = 0; jj < StructPointer.ptrCount(tag); ++jj) {
+							validatePointer(resolvedSegment, pointerSection + jj, nestingLimit - 1, budget);
+						}
+						pos += wordsPerElement;
+					}
+				} else {
+					int elementCount = ListPointer.elementCount(resolvedRef);
+					long step = ElementSize.dataBitsPerElement(elementSize)
+							+ ElementSize.pointersPerElement(elementSize) * Constants.BITS_PER_POINTER;
+					int words = roundBitsUpToWords(elementCount * step);
+					checkBounds(resolvedSegment, target, words);
+					chargeBudget(budget, words);
+					if (elementSize == ElementSize.VOID) {
+						chargeBudget(budget, elementCount);
+					}
+					if (elementSize == ElementSize.POINTER) {
+						for (int ii = 0; ii < elementCount; ++ii) {
+							validatePointer(resolvedSegment, target + ii, nestingLimit - 1, budget);
+						}
+					}
+				}
+				return;
+			}
+			case WirePointer.FAR:
+				throw new DecodeException("Message contains a far pointer whose landing pad is another far pointer.");
+			default:
+				throw new DecodeException("Message contains a capability pointer, which this runtime does not support.");
+		}
+	}
+
+	private static SegmentReader validSegment(SegmentReader segment, int id) {
+		ReaderArena arena = (ReaderArena) segment.arena;
+		if (id < 0 || id >= arena.segmentCount()) { throw new DecodeException(
+				"Message contains a far pointer to a segment that does not exist."); }
+		return arena.tryGetSegment(id);
+	}
+
+	// readers take both halves of a struct's size as signed shorts
+	private static void checkStructSize(long ref) {
+		if (StructPointer.dataSize(ref) < 0 || StructPointer.ptrCount(ref) < 0) { throw new DecodeException(
+				"Message contains a struct too large for this runtime."); }
+	}
+
+	/*
+	 * Like WirePointer.target(), but with the offset sign-extended. The readers get away with the
+	 * unsigned offset because it wraps around when scaled to bytes; bounds checks do not.
+	 */
+	private static int signedTarget(int offset, long ref) {
+		return offset + 1 + (WirePointer.offsetAndKind(ref) >> 2);
+	}
+
+	private static void checkBounds(SegmentReader segment, int offset, long words) {
+		if (offset < 0 || offset + words > segment.buffer.limit() / Constants.BYTES_PER_WORD) { throw new DecodeException(
+				"Message contains out-of-bounds pointer."); }
+	}
+
+	private static void chargeBudget(long[] budget, long words) {
+		if (words > budget[0]) { throw new DecodeException("Read limit exceeded."); }
+		budget[0] -= words;
+	}
+
 	static <T> T readListPointer(ListReader.Factory<T> factory, SegmentReader segment, int refOffset,
 			SegmentReader defaultSegment, int defaultOffset, byte expectedElementSize, int nestingLimit) {
 
@@ -1051,17 +1323,22 @@ final class WireHelpers {
 
 		int refTarget = WirePointer.target(refOffset, ref);
 
-		FollowFarsResult resolved = followFars(ref, refTarget, segment);
+		int resolvedPtr = followFarsTarget(ref, refTarget, segment);
+		long resolvedRef = followFarsRef(ref, segment);
+		SegmentReader resolvedSegment = followFarsSegment(ref, segment);
+
+		if (WirePointer.kind(resolvedRef) != WirePointer.LIST) { throw new DecodeException(
+				"Message contains non-list pointer where list was expected."); }
 
-		byte elementSize = ListPointer.elementSize(resolved.ref);
+		byte elementSize = ListPointer.elementSize(resolvedRef);
 		switch (elementSize) {
 			case ElementSize.INLINE_COMPOSITE: {
-				int wordCount = ListPointer.inlineCompositeWordCount(resolved.ref);
+				int wordCount = ListPointer.inlineCompositeWordCount(resolvedRef);
 
-				long tag = resolved.segment.get(resolved.ptr);
-				int ptr = resolved.ptr + 1;
+				long tag = resolvedSegment.get(resolvedPtr);
+				int ptr = resolvedPtr + 1;
 
-				resolved.segment.arena.checkReadLimit(wordCount + 1);
+				resolvedSegment.arena.checkReadLimit(wordCount + 1);
 
 				int size = WirePointer.inlineCompositeListElementCount(tag);
 
@@ -1073,12 +1350,12 @@ final class WireHelpers {
 				if (wordsPerElement == 0) {
 					// Watch out for lists of zero-sized structs, which can claim to be arbitrarily
 					// large without having sent actual data.
-					resolved.segment.arena.checkReadLimit(size);
+					resolvedSegment.arena.checkReadLimit(size);
 				}
 
 				// TODO check whether the size is compatible
 
-				return factory.constructReader(resolved.segment, ptr * Constants.BYTES_PER_WORD, size, wordsPerElement
+				return factory.constructReader(resolvedSegment, ptr * Constants.BYTES_PER_WORD, size, wordsPerElement
 						* Constants.BITS_PER_WORD, StructPointer.dataSize(tag) * Constants.BITS_PER_WORD,
 						StructPointer.ptrCount(tag), nestingLimit - 1);
 			}
@@ -1087,17 +1364,17 @@ final class WireHelpers {
 				//# lists can also be interpreted as struct lists. We
 				//# need to compute the data size and pointer count for
 				//# such structs.
-				int dataSize = ElementSize.dataBitsPerElement(ListPointer.elementSize(resolved.ref));
-				int pointerCount = ElementSize.pointersPerElement(ListPointer.elementSize(resolved.ref));
-				int elementCount = ListPointer.elementCount(resolved.ref);
+				int dataSize = ElementSize.dataBitsPerElement(ListPointer.elementSize(resolvedRef));
+				int pointerCount = ElementSize.pointersPerElement(ListPointer.elementSize(resolvedRef));
+				int elementCount = ListPointer.elementCount(resolvedRef);
 				int step = dataSize + pointerCount * Constants.BITS_PER_POINTER;
 
-				resolved.segment.arena.checkReadLimit(roundBitsUpToWords(elementCount * step));
+				resolvedSegment.arena.checkReadLimit(roundBitsUpToWords(elementCount * step));
 
 				if (elementSize == ElementSize.VOID) {
 					// Watch out for lists of void, which can claim to be arbitrarily large without
 					// having sent actual data.
-					resolved.segment.arena.checkReadLimit(elementCount);
+					resolvedSegment.arena.checkReadLimit(elementCount);
 				}
 
 				//# Verify that the elements are at least as large as
@@ -1117,8 +1394,8 @@ final class WireHelpers {
 				if (expectedPointersPerElement > pointerCount) { throw new DecodeException(
 						"Message contains list with incompatible element type."); }
 
-				return factory.constructReader(resolved.segment, resolved.ptr * Constants.BYTES_PER_WORD,
-						ListPointer.elementCount(resolved.ref), step, dataSize, (short) pointerCount, nestingLimit - 1);
+				return factory.constructReader(resolvedSegment, resolvedPtr * Constants.BYTES_PER_WORD,
+						ListPointer.elementCount(resolvedRef), step, dataSize, (short) pointerCount, nestingLimit - 1);
 			}
 		}
 	}
@@ -1137,22 +1414,24 @@ final class WireHelpers {
 
 		int refTarget = WirePointer.target(refOffset, ref);
 
-		FollowFarsResult resolved = followFars(ref, refTarget, segment);
+		int resolvedPtr = followFarsTarget(ref, refTarget, segment);
+		long resolvedRef = followFarsRef(ref, segment);
+		SegmentReader resolvedSegment = followFarsSegment(ref, segment);
 
-		int size = ListPointer.elementCount(resolved.ref);
+		int size = ListPointer.elementCount(resolvedRef);
 
-		if (WirePointer.kind(resolved.ref) != WirePointer.LIST) { throw new DecodeException(
+		if (WirePointer.kind(resolvedRef) != WirePointer.LIST) { throw new DecodeException(
 				"Message contains non-list pointer where text was expected."); }
 
-		if (ListPointer.elementSize(resolved.ref) != ElementSize.BYTE) { throw new DecodeException(
+		if (ListPointer.elementSize(resolvedRef) != ElementSize.BYTE) { throw new DecodeException(
 				"Message contains list pointer of non-bytes where text was expected."); }
 
-		resolved.segment.arena.checkReadLimit(roundBytesUpToWords(size));
+		resolvedSegment.arena.checkReadLimit(roundBytesUpToWords(size));
 
-		if (size == 0 || resolved.segment.buffer.get(8 * resolved.ptr + size - 1) != 0) { throw new DecodeException(
+		if (size == 0 || resolvedSegment.buffer.get(8 * resolvedPtr + size - 1) != 0) { throw new DecodeException(
 				"Message contains text that is not NUL-terminated."); }
 
-		return new Text.Reader(resolved.segment.buffer, resolved.ptr, size - 1);
+		return new Text.Reader(resolvedSegment.buffer, resolvedPtr, size - 1);
 	}
 
 	static Data.Reader readDataPointer(SegmentReader segment, int refOffset, ByteBuffer defaultBuffer, int defaultOffset,
@@ -1169,19 +1448,21 @@ final class WireHelpers {
 
 		int refTarget = WirePointer.target(refOffset, ref);
 
-		FollowFarsResult resolved = followFars(ref, refTarget, segment);
+		int resolvedPtr = followFarsTarget(ref, refTarget, segment);
+		long resolvedRef = followFarsRef(ref, segment);
+		SegmentReader resolvedSegment = followFarsSegment(ref, segment);
 
-		int size = ListPointer.elementCount(resolved.ref);
+		int size = ListPointer.elementCount(resolvedRef);
 
-		if (WirePointer.kind(resolved.ref) != WirePointer.LIST) { throw new DecodeException(
+		if (WirePointer.kind(resolvedRef) != WirePointer.LIST) { throw new DecodeException(
 				"Message contains non-list pointer where data was expected."); }
 
-		if (ListPointer.elementSize(resolved.ref) != ElementSize.BYTE) { throw new DecodeException(
+		if (ListPointer.elementSize(resolvedRef) != ElementSize.BYTE) { throw new DecodeException(
 				"Message contains list pointer of non-bytes where data was expected."); }
 
-		resolved.segment.arena.checkReadLimit(roundBytesUpToWords(size));
+		resolvedSegment.arena.checkReadLimit(roundBytesUpToWords(size));
 
-		return new Data.Reader(resolved.segment.buffer, resolved.ptr, size);
+		return new Data.Reader(resolvedSegment.buffer, resolvedPtr, size);
 	}
 
 }
@@ -86,4 +86,117 @@ class SerializePackedSuite extends FunSuite {
                   Array.concat(Array(0xff.toByte, 1,1,1,1,1,1,1,1, 199.toByte),
                                Array.tabulate[Byte](8 * 199)((n) => 1)))
   }
+
+  test("InputByteOrder") {
+    // words are read as little-endian whatever order the input buffer is set to
+    val unpacked = Array[Byte](0,0,12,0,0,34,0,0, 1,3,2,4,5,7,6,8)
+    val bytes = new Array[Byte](13)
+    val packedOutputStream = new PackedOutputStream(new ArrayOutputStream(ByteBuffer.wrap(bytes)))
+    packedOutputStream.write(ByteBuffer.wrap(unpacked).order(java.nio.ByteOrder.BIG_ENDIAN))
+
+    (bytes) should equal (Array[Byte](0x24, 12, 34, 0xff.toByte,1,3,2,4,5,7,6,8,0))
+  }
+
+  test("LongRuns") {
+    // runs are capped at 255 words after the first, then start over
+    expectPacksTo(Array.tabulate[Byte](8 * 300)((n) => 0),
+                  Array(0, 255.toByte, 0, 43))
+
+    expectPacksTo(Array.tabulate[Byte](8 * 300)((n) => 1),
+                  Array.concat(Array(0xff.toByte, 1,1,1,1,1,1,1,1, 255.toByte),
+                               Array.tabulate[Byte](8 * 255)((n) => 1),
+                               Array(0xff.toByte, 1,1,1,1,1,1,1,1, 43),
+                               Array.tabulate[Byte](8 * 43)((n) => 1)))
+  }
+
+  test("ReadFromByteBuffer") {
+    // a one-word first segment puts the text in a second segment
+    val messages = for (text <- Array("first", "second")) yield {
+      val message = new MessageBuilder(1, BuilderArena.AllocationStrategy.FIXED_SIZE)
+      message.getRoot(AnyPointer.factory).setAs(Text.factory, new Text.Reader(text))
+      message
+    }
+    val bytes = new Array[Byte](256)
+    val writer = new ArrayOutputStream(ByteBuffer.wrap(bytes))
+    for (message <- messages) {
+      SerializePacked.write(writer, message)
+    }
+    val packed = ByteBuffer.wrap(bytes, 0, writer.buf.position()).slice()
+
+    val first = SerializePacked.read(packed)
+    first.getRoot(AnyPointer.factory).getAs(Text.factory).toString() should equal ("first")
+
+    val pool = new PooledAllocator(new HeapAllocator(), 1 << 16)
+    val second = SerializePacked.read(packed, ReaderOptions.DEFAULT_READER_OPTIONS, pool)
+    second.getRoot(AnyPointer.factory).getAs(Text.factory).toString() should equal ("second")
+    second.close()
+    packed.remaining() should equal (0)
+
+    val truncated = ByteBuffer.wrap(bytes, 0, 12).slice()
+    a [java.io.IOException] should be thrownBy SerializePacked.read(truncated)
+
+    // a corrupt segment table is rejected before anything is allocated for the segments
+    def packedTable(table: Int*): ByteBuffer = {
+      val unpacked = ByteBuffer.allocate(table.length * 4).order(java.nio.ByteOrder.LITTLE_ENDIAN)
+      table.foreach(unpacked.putInt(_))
+      unpacked.flip()
+      val tableBytes = new Array[Byte](64)
+      val tableWriter = new ArrayOutputStream(ByteBuffer.wrap(tableBytes))
+      new PackedOutputStream(tableWriter).write(unpacked)
+      ByteBuffer.wrap(tableBytes, 0, tableWriter.buf.position()).slice()
+    }
+    a [java.io.IOException] should be thrownBy SerializePacked.read(packedTable(0x7fffffff, 0))
+    a [DecodeException] should be thrownBy SerializePacked.read(packedTable(1, 0x7fffffff, 0x7fffffff, 0),
+                                                                  new ReaderOptions(Long.MaxValue, 64))
+  }
+
+  test("ComputeSerializedSize") {
+    val message = new MessageBuilder(1, BuilderArena.AllocationStrategy.FIXED_SIZE)
+    val list = message.getRoot(AnyPointer.factory).initAs(PrimitiveList.Long.factory, 600)
+    for (ii <- 0 until 300) {
+      list.set(ii, 0x0101010101010101L * (ii % 255 + 1))
+    }
+
+    val bytes = new Array[Byte](8192)
+    val writer = new ArrayOutputStream(ByteBuffer.wrap(bytes))
+    SerializePacked.write(writer, message)
+    val packed = java.util.Arrays.copyOf(bytes, writer.buf.position())
+
+    SerializePacked.computeSerializedSizeInBytes(message) should equal (packed.length)
+    SerializePacked.toByteArray(message) should equal (packed)
+
+    val buffer = SerializePacked.writeToByteBuffer(message)
+    buffer.remaining() should equal (packed.length)
+    val reader = SerializePacked.read(buffer).getRoot(AnyPointer.factory).getAs(PrimitiveList.Long.factory)
+    reader.get(299) should equal (0x0101010101010101L * 45)
+    reader.get(599) should equal (0)
+  }
+
+  test("WriteParallel") {
+    val message = new MessageBuilder(64, BuilderArena.AllocationStrategy.FIXED_SIZE)
+    val list = message.getRoot(AnyPointer.factory).initAs(PrimitiveList.Long.factory, 5000)
+    val random = new scala.util.Random(1)
+    for (ii <- 0 until list.size()) {
+      // long zero and uncompressed runs, broken up by words that pack on their own
+      list.set(ii, (ii / 400) % 3 match {
+        case 0 => 0L
+        case 1 => random.nextLong() | 0x0101010101010101L
+        case _ => random.nextLong() >>> (8 * random.nextInt(8))
+      })
+    }
+
+    val sequential = new java.io.ByteArrayOutputStream()
+    SerializePacked.writeToUnbuffered(java.nio.channels.Channels.newChannel(sequential), message)
+
+    val executor = java.util.concurrent.Executors.newFixedThreadPool(4)
+    try {
+      for (chunkBytes <- Array(8, 256, 4096, SerializePacked.PARALLEL_CHUNK_BYTES)) {
+        val parallel = new java.io.ByteArrayOutputStream()
+        SerializePacked.writeParallel(java.nio.channels.Channels.newChannel(parallel), message, executor, chunkBytes)
+        (parallel.toByteArray()) should equal (sequential.toByteArray())
+      }
+    } finally {
+      executor.shutdown()
+    }
+  }
 }
@@ -21,7 +21,9 @@
 
 package org.capnproto
 
+import java.io.ByteArrayOutputStream
 import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
 
 import org.scalatest.FunSuite
 import org.scalatest.Matchers._
@@ -33,9 +35,9 @@ class SerializeSuite extends FunSuite {
    */
   def expectSerializesTo(exampleSegmentCount: Int, exampleBytes: Array[Byte]): Unit = {
     def checkSegmentContents(arena: ReaderArena): Unit = {
-      arena.segments should have length exampleSegmentCount
+      arena.segmentCount() should equal (exampleSegmentCount)
       for (i <- 0 until exampleSegmentCount) {
-        val segment = arena.segments.get(i)
+        val segment = arena.tryGetSegment(i)
         val segmentWords = segment.buffer.asLongBuffer()
 
         segmentWords.capacity should equal (i)
@@ -120,4 +122,519 @@ class SerializeSuite extends FunSuite {
       3, 0, 0, 0, 0, 0, 0, 0
     ))
   }
+
+  /**
+   * Records what is written through it, taking at most `chunk` bytes per call.
+   */
+  class RecordingGatheringChannel(var chunk: Int) extends GatheringByteChannel {
+    val bytes = new ByteArrayOutputStream()
+    var gatheringWrites = 0
+
+    def write(srcs: Array[ByteBuffer], offset: Int, length: Int): Long = {
+      gatheringWrites += 1
+      var written = 0
+      for (i <- offset until offset + length) {
+        while (srcs(i).hasRemaining && written < chunk) {
+          bytes.write(srcs(i).get())
+          written += 1
+        }
+      }
+      written
+    }
+    def write(srcs: Array[ByteBuffer]): Long = write(srcs, 0, srcs.length)
+    def write(src: ByteBuffer): Int = throw new Error("expected a gathering write")
+    def isOpen(): Boolean = true
+    def close(): Unit = {}
+  }
+
+  def textMessage(text: String): MessageBuilder = {
+    // a one-word first segment puts the text in a second segment
+    val message = new MessageBuilder(1, BuilderArena.AllocationStrategy.FIXED_SIZE)
+    message.getRoot(AnyPointer.factory).setAs(Text.factory, new Text.Reader(text))
+    message
+  }
+
+  test("GatheringWrite") {
+    val message = textMessage("gathered")
+    message.getSegmentsForOutput() should have length 2
+
+    val channel = new RecordingGatheringChannel(1 << 20)
+    Serialize.write(channel, message)
+    channel.gatheringWrites should equal (1)
+
+    val reader = Serialize.read(ByteBuffer.wrap(channel.bytes.toByteArray()))
+    reader.getRoot(Text.factory).toString() should equal ("gathered")
+  }
+
+  test("CloseTwice") {
+    val message = textMessage("closed")
+    message.close()
+    message.close()
+    an [Error] should be thrownBy message.reset()
+    an [Error] should be thrownBy message.getSegmentsForOutput()
+  }
+
+  test("WriteAll") {
+    val messages = Array("one", "two", "three").map(textMessage)
+
+    // short writes must resume where the previous call stopped
+    val channel = new RecordingGatheringChannel(5)
+    Serialize.writeAll(channel, messages: _*)
+
+    val input = new ArrayInputStream(ByteBuffer.wrap(channel.bytes.toByteArray()))
+    for (text <- Array("one", "two", "three")) {
+      Serialize.read(input).getRoot(Text.factory).toString() should equal (text)
+    }
+  }
+
+  test("DirectRead") {
+    val bytes = new java.io.ByteArrayOutputStream()
+    Serialize.write(java.nio.channels.Channels.newChannel(bytes), textMessage("direct"))
+    def channel() = java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(bytes.toByteArray()))
+
+    val reader = Serialize.read(channel(), ReaderOptions.DEFAULT_READER_OPTIONS, new DirectAllocator())
+    reader.arena.tryGetSegment(0).buffer.isDirect() should equal (true)
+    reader.getRoot(Text.factory).toString() should equal ("direct")
+    reader.close()
+    reader.close()
+
+    // a pool gets the buffer back once, zeroed, and hands it out again
+    val pool = new PooledAllocator(new DirectAllocator(), 1 << 20)
+    val pooled = Serialize.read(channel(), ReaderOptions.DEFAULT_READER_OPTIONS, pool)
+    val backing = pooled.arena.tryGetSegment(0).buffer
+    pooled.getRoot(Text.factory).toString() should equal ("direct")
+    pooled.close()
+    val pooledBytes = pool.pooledBytes()
+    pooled.close()
+    pool.pooledBytes() should equal (pooledBytes)
+    for (ii <- 0 until backing.limit()) { backing.get(ii) should equal (0) }
+
+    val again = Serialize.read(channel(), ReaderOptions.DEFAULT_READER_OPTIONS, pool)
+    again.getRoot(Text.factory).toString() should equal ("direct")
+    pool.hits() should equal (1L)
+    again.close()
+  }
+
+  test("ReadMapped") {
+    val file = java.io.File.createTempFile("capnp-mapped", ".bin")
+    file.deleteOnExit()
+    val output = new java.io.FileOutputStream(file).getChannel()
+    Serialize.writeAll(output, textMessage("first"), textMessage("second"))
+    output.close()
+
+    val input = new java.io.RandomAccessFile(file, "r").getChannel()
+    val first = Serialize.readMapped(input, 0)
+    val secondOffset = Serialize.computeSerializedSizeInWords(textMessage("first")) * 8
+    val second = Serialize.readMapped(input, secondOffset)
+    input.close()
+
+    first.getRoot(Text.factory).toString() should equal ("first")
+    second.getRoot(Text.factory).toString() should equal ("second")
+  }
+
+  test("ReadLazily") {
+    val file = java.io.File.createTempFile("capnp-lazy", ".bin")
+    file.deleteOnExit()
+    val output = new java.io.FileOutputStream(file).getChannel()
+    Serialize.write(output, textMessage("lazy"))
+    output.close()
+
+    val input = new java.io.RandomAccessFile(file, "r").getChannel()
+    val reader = Serialize.readLazily(input, 0, ReaderOptions.DEFAULT_READER_OPTIONS)
+    reader.arena.segmentCount() should equal (2)
+    reader.getRoot(Text.factory).toString() should equal ("lazy")
+    input.close()
+
+    // each segment is loaded once, the first time it is needed
+    val segments = textMessage("lazy").getSegmentsForOutput()
+    val loads = new Array[Int](2)
+    val arena = new ReaderArena(2, new SegmentLoader {
+      def loadSegment(id: Int): ByteBuffer = {
+        loads(id) += 1
+        segments(id).duplicate()
+      }
+    }, ReaderOptions.DEFAULT_READER_OPTIONS.traversalLimitInWords)
+    val message = new MessageReader(arena, ReaderOptions.DEFAULT_READER_OPTIONS)
+    arena.tryGetSegment(0)
+    loads.toSeq should equal (Seq(1, 0))
+    message.getRoot(Text.factory).toString() should equal ("lazy")
+    message.getRoot(Text.factory).toString() should equal ("lazy")
+    loads.toSeq should equal (Seq(1, 1))
+
+    // a segment that cannot be read is reported as a decoding failure caused by the I/O error
+    val failing = new ReaderArena(2, new SegmentLoader {
+      def loadSegment(id: Int): ByteBuffer = {
+        if (id == 1) { throw new java.io.IOException("segment is gone") }
+        segments(id).duplicate()
+      }
+    }, ReaderOptions.DEFAULT_READER_OPTIONS.traversalLimitInWords)
+    val e = intercept[DecodeException] {
+      new MessageReader(failing, ReaderOptions.DEFAULT_READER_OPTIONS).getRoot(Text.factory)
+    }
+    e.getCause().isInstanceOf[java.io.IOException] should equal (true)
+  }
+
+  test("MessageDecoder") {
+    val texts = Array("one", "two", "three")
+    for (packed <- Array(false, true)) {
+      val bytes = new ByteArrayOutputStream()
+      val output = java.nio.channels.Channels.newChannel(bytes)
+      for (text <- texts) {
+        if (packed) {
+          SerializePacked.writeToUnbuffered(output, textMessage(text))
+        } else {
+          Serialize.write(output, textMessage(text))
+        }
+      }
+      val stream = bytes.toByteArray()
+
+      // one byte at a time, as a slow connection might deliver it
+      val decoder = new MessageDecoder(ReaderOptions.DEFAULT_READER_OPTIONS, packed)
+      val decoded = new scala.collection.mutable.ArrayBuffer[String]()
+      for (ii <- 0 until stream.length) {
+        val chunk = ByteBuffer.wrap(stream, ii, 1)
+        var message = decoder.decode(chunk)
+        while (message != null) {
+          decoded += message.getRoot(Text.factory).toString()
+          message = decoder.decode(chunk)
+        }
+        chunk.hasRemaining() should equal (false)
+      }
+      decoded should equal (texts.toSeq)
+      decoder.atMessageBoundary() should equal (true)
+
+      // everything at once
+      val all = ByteBuffer.wrap(stream)
+      for (text <- texts) {
+        decoder.decode(all).getRoot(Text.factory).toString() should equal (text)
+      }
+      decoder.decode(all) should be (null)
+    }
+  }
+
+  // hands out `data` in reads of at most the sizes in `script`, in turn; a size of 0 is a read
+  // that finds nothing available, as on a non-blocking socket
+  class ScriptedChannel(data: Array[Byte], script: Seq[Int]) extends java.nio.channels.ReadableByteChannel {
+    var position = 0
+    var step = 0
+    def read(dst: ByteBuffer): Int = {
+      if (position == data.length) { return -1 }
+      val n = script(step % script.length) min dst.remaining() min (data.length - position)
+      step += 1
+      dst.put(data, position, n)
+      position += n
+      n
+    }
+    def isOpen(): Boolean = true
+    def close(): Unit = {}
+  }
+
+  test("MessageDecoderChannel") {
+    val texts = Array("one", "two" * 5000, "three")
+    for (packed <- Array(false, true)) {
+      val bytes = new ByteArrayOutputStream()
+      val output = java.nio.channels.Channels.newChannel(bytes)
+      for (text <- texts) {
+        if (packed) {
+          SerializePacked.writeToUnbuffered(output, textMessage(text))
+        } else {
+          Serialize.write(output, textMessage(text))
+        }
+      }
+      val stream = bytes.toByteArray()
+
+      // short reads and reads that find nothing, then everything at once, so that several
+      // messages wait in the input buffer of a packed decoder
+      for (script <- Array(Seq(0, 3, 0, 1, 7, 0, 64), Seq(1 << 20))) {
+        val decoder = new MessageDecoder(ReaderOptions.DEFAULT_READER_OPTIONS, packed)
+        val channel = new ScriptedChannel(stream, script)
+        val decoded = new scala.collection.mutable.ArrayBuffer[String]()
+        var nulls = 0
+        while (!decoder.atEndOfStream()) {
+          val message = decoder.read(channel)
+          if (message == null) {
+            nulls += 1
+          } else {
+            decoded += message.getRoot(Text.factory).toString()
+          }
+        }
+        decoded should equal (texts.toSeq)
+        decoder.atMessageBoundary() should equal (true)
+        if (script.length > 1) {
+          nulls should be > 1
+        } else {
+          nulls should equal (1)
+        }
+      }
+
+      // a stream that closes in the middle of a message
+      val decoder = new MessageDecoder(ReaderOptions.DEFAULT_READER_OPTIONS, packed)
+      val channel = new ScriptedChannel(stream.take(stream.length - 3), Seq(5))
+      var complete = 0
+      val e = intercept[java.io.IOException] {
+        while (true) {
+          if (decoder.read(channel) != null) { complete += 1 }
+        }
+      }
+      e.getMessage() should equal ("premature EOF")
+      complete should equal (2)
+      decoder.atEndOfStream() should equal (false)
+    }
+  }
+
+  test("MessageEncoder") {
+    val first = textMessage("first")
+    val second = textMessage("second")
+    val firstBytes = Serialize.computeSerializedSizeInWords(first) * 8
+
+    // the limit leaves no room for a second message
+    val encoder = new MessageEncoder(firstBytes + 1)
+    encoder.offer(first) should equal (true)
+    encoder.offer(second) should equal (false)
+    encoder.pendingBytes() should equal (firstBytes)
+
+    // a full channel takes nothing, and write() must return rather than spin
+    val channel = new RecordingGatheringChannel(0)
+    encoder.write(channel) should equal (false)
+    encoder.hasPending() should equal (true)
+
+    channel.chunk = 7
+    while (!encoder.write(channel)) {}
+    encoder.hasPending() should equal (false)
+    encoder.offer(second) should equal (true)
+    while (!encoder.write(channel)) {}
+
+    val input = new ArrayInputStream(ByteBuffer.wrap(channel.bytes.toByteArray()))
+    Serialize.read(input).getRoot(Text.factory).toString() should equal ("first")
+    Serialize.read(input).getRoot(Text.factory).toString() should equal ("second")
+  }
+
+  test("MessageIndex") {
+    val file = java.io.File.createTempFile("capnp-index", ".bin")
+    file.deleteOnExit()
+    val output = new java.io.FileOutputStream(file).getChannel()
+    val texts = Array("zero", "one", "two")
+    Serialize.writeAll(output, texts.map(textMessage): _*)
+    // the start of a message that is still being written
+    output.write(ByteBuffer.wrap(Array[Byte](0, 0, 0, 0)))
+
+    val input = new java.io.RandomAccessFile(file, "r").getChannel()
+    val index = MessageIndex.scan(input)
+    index.size() should equal (3)
+    index.read(input, 2).getRoot(Text.factory).toString() should equal ("two")
+    index.length(0) should equal (Serialize.computeSerializedSizeInWords(textMessage("zero")) * 8)
+
+    val sidecar = new ByteArrayOutputStream()
+    index.writeTo(java.nio.channels.Channels.newChannel(sidecar))
+    val loaded = MessageIndex.readFrom(
+      java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(sidecar.toByteArray())))
+    loaded.size() should equal (3)
+    loaded.endOffset() should equal (index.endOffset())
+
+    output.truncate(index.endOffset())
+    output.position(index.endOffset())
+    Serialize.write(output, textMessage("three"))
+    loaded.update(input) should equal (1)
+    loaded.read(input, 3).getRoot(Text.factory).toString() should equal ("three")
+
+    output.close()
+    input.close()
+  }
+
+  test("RecordLog") {
+    val path = java.nio.file.Files.createTempFile("capnp-log", ".bin")
+    path.toFile().deleteOnExit()
+
+    val writer = RecordLogWriter.open(path, RecordLogWriter.SyncPolicy.EVERY_COMMIT)
+    writer.append(textMessage("first")) should equal (0)
+    val reader = RecordLogReader.open(path)
+    reader.next() should be (null)
+
+    writer.commit()
+    reader.next().getRoot(Text.factory).toString() should equal ("first")
+    reader.next() should be (null)
+
+    // the message is copied on append, so the builder can be reused before the commit
+    val message = textMessage("second")
+    val offset = writer.append(message)
+    message.reset()
+    writer.close()
+    reader.next().getRoot(Text.factory).toString() should equal ("second")
+    reader.offset(1) should equal (offset)
+    reader.get(0).getRoot(Text.factory).toString() should equal ("first")
+    reader.close()
+  }
+
+  test("RecordLogTail") {
+    val path = java.nio.file.Files.createTempFile("capnp-tail", ".bin")
+    path.toFile().deleteOnExit()
+    val writer = RecordLogWriter.open(path, RecordLogWriter.SyncPolicy.ON_CLOSE)
+    val reader = RecordLogReader.open(path)
+
+    // records found one at a time share a mapping while it is small
+    for (ii <- 0 until 100) {
+      writer.append(textMessage("record " + ii))
+      writer.commit()
+      reader.next().getRoot(Text.factory).toString() should equal ("record " + ii)
+    }
+    reader.mappings should have length 1
+
+    // a mapping that has grown large is kept as it is, and new records get one of their own
+    val large = "x" * (600 * 1024)
+    for (ii <- 0 until 2) {
+      writer.append(textMessage(large))
+      writer.commit()
+      reader.refresh()
+    }
+    val first = reader.mappings.get(0).buffer
+    writer.append(textMessage("tail"))
+    writer.commit()
+    reader.refresh() should equal (1)
+    reader.mappings should have length 2
+    (reader.mappings.get(0).buffer eq first) should equal (true)
+
+    reader.get(50).getRoot(Text.factory).toString() should equal ("record 50")
+    reader.get(101).getRoot(Text.factory).toString() should equal (large)
+    reader.get(102).getRoot(Text.factory).toString() should equal ("tail")
+    writer.close()
+    reader.close()
+  }
+
+  test("ConcurrentReads") {
+    val text = "shared between threads"
+    val channel = new RecordingGatheringChannel(1 << 20)
+    Serialize.write(channel, textMessage(text))
+    val reader = Serialize.read(ByteBuffer.wrap(channel.bytes.toByteArray()))
+    val start = reader.arena.limit
+
+    val failures = new java.util.concurrent.atomic.AtomicInteger()
+    val threads = for (t <- 0 until 4) yield new Thread() {
+      override def run(): Unit = {
+        for (ii <- 0 until 1000) {
+          val value = reader.getRoot(Text.factory)
+          if (value.toString() != text || value.asByteBuffer().remaining() != text.length) {
+            failures.incrementAndGet()
+          }
+        }
+      }
+    }
+    threads.foreach(_.start())
+    threads.foreach(_.join())
+
+    failures.get() should equal (0)
+    // every thread's reads are charged to the shared traversal limit, three words each
+    start - reader.arena.limit should equal (4 * 1000 * 3)
+
+    // a limit that covers exactly those reads is used up without a read failing early
+    val exact = Serialize.read(ByteBuffer.wrap(channel.bytes.toByteArray()),
+                               new ReaderOptions(4 * 1000 * 3, ReaderOptions.DEFAULT_READER_OPTIONS.nestingLimit))
+    val exactThreads = for (t <- 0 until 4) yield new Thread() {
+      override def run(): Unit = {
+        for (ii <- 0 until 1000) {
+          try {
+            exact.getRoot(Text.factory)
+          } catch {
+            case e: DecodeException => failures.incrementAndGet()
+          }
+        }
+      }
+    }
+    exactThreads.foreach(_.start())
+    exactThreads.foreach(_.join())
+
+    failures.get() should equal (0)
+    exact.arena.limit should equal (0)
+    a [DecodeException] should be thrownBy exact.getRoot(Text.factory)
+  }
+
+  test("SerializeCodec") {
+    val small = textMessage("short")
+    val large = textMessage("repetitive " * 500)
+    val codecs = Array(new SerializeCodec(Codec.NONE), new SerializeCodec(Codec.PACKED),
+                       new SerializeCodec(Codec.DEFLATE), new SerializeCodec(Codec.PACKED_DEFLATE),
+                       new SerializeCodec(Codec.PACKED, Codec.PACKED_DEFLATE, SerializeCodec.DEFAULT_THRESHOLD))
+    for (codec <- codecs) {
+      val bytes = new java.io.ByteArrayOutputStream()
+      val output = new BufferedOutputStreamWrapper(java.nio.channels.Channels.newChannel(bytes))
+      codec.write(output, small)
+      codec.write(output, large)
+      output.flush()
+
+      val input = new ArrayInputStream(ByteBuffer.wrap(bytes.toByteArray()))
+      codec.read(input).getRoot(AnyPointer.factory).getAs(Text.factory).toString() should equal ("short")
+      codec.read(input).getRoot(AnyPointer.factory).getAs(Text.factory).toString() should equal ("repetitive " * 500)
+
+      // decoding into a buffer from an allocator
+      val direct = new ArrayInputStream(ByteBuffer.wrap(bytes.toByteArray()))
+      for (text <- Array("short", "repetitive " * 500)) {
+        val reader = codec.read(direct, ReaderOptions.DEFAULT_READER_OPTIONS, new DirectAllocator())
+        reader.getRoot(AnyPointer.factory).getAs(Text.factory).toString() should equal (text)
+        reader.close()
+      }
+    }
+
+    // deflate shrinks the repetitive message to a fraction, and the frame says which codec it used
+    val bytes = new java.io.ByteArrayOutputStream()
+    val output = new BufferedOutputStreamWrapper(java.nio.channels.Channels.newChannel(bytes))
+    new SerializeCodec(Codec.PACKED, Codec.PACKED_DEFLATE, SerializeCodec.DEFAULT_THRESHOLD).write(output, large)
+    output.flush()
+    val frame = ByteBuffer.wrap(bytes.toByteArray()).order(java.nio.ByteOrder.LITTLE_ENDIAN)
+    frame.getInt(0) should equal (Codec.PACKED_DEFLATE.id())
+    frame.limit() should be < (Serialize.computeSerializedSizeInWords(large).toInt * 8 / 10)
+
+    // a reader that does not know the codec refuses the frame
+    a [java.io.IOException] should be thrownBy
+      new SerializeCodec(Codec.PACKED).read(new ArrayInputStream(frame))
+
+    // deflate codecs keep their zlib state from frame to frame; a frame that fails must not spoil the next
+    for (codec <- Array(Codec.DEFLATE, Codec.PACKED_DEFLATE); text <- Array("first", "repetitive " * 500, "third")) {
+      val message = textMessage(text)
+      val serialized = ByteBuffer.allocate(Serialize.computeSerializedSizeInWords(message).toInt * 8)
+      Serialize.write(new ArrayOutputStream(serialized), message)
+      val encoded = codec.encode(serialized.duplicate())
+
+      val truncated = encoded.duplicate()
+      truncated.limit(encoded.remaining() / 2)
+      a [java.io.IOException] should be thrownBy codec.decode(truncated, ByteBuffer.allocate(serialized.remaining()))
+      a [java.io.IOException] should be thrownBy
+        codec.decode(ByteBuffer.wrap(Array[Byte](1, 2, 3, 4)), ByteBuffer.allocate(serialized.remaining()))
+
+      val decoded = ByteBuffer.allocate(serialized.remaining())
+      codec.decode(encoded, decoded)
+      decoded.flip()
+      decoded should equal (serialized)
+    }
+  }
+
+  test("SerializeChecksummed") {
+    // the check value of CRC-32C, from RFC 3720
+    val check = "123456789".getBytes("US-ASCII")
+    Crc32c.checksum(Array(ByteBuffer.wrap(check))) should equal (0xe3069283)
+    val table = new Crc32c.TableChecksum()
+    table.update(check, 0, check.length)
+    table.getValue() should equal (0xe3069283L)
+
+    val message = textMessage("checked")
+    val bytes = new ByteArrayOutputStream()
+    SerializeChecksummed.write(java.nio.channels.Channels.newChannel(bytes), message)
+    val packedBytes = new ByteArrayOutputStream()
+    val packedOutput = new BufferedOutputStreamWrapper(java.nio.channels.Channels.newChannel(packedBytes))
+    SerializeChecksummed.writePacked(packedOutput, message)
+    packedOutput.flush()
+
+    val buffer = ByteBuffer.wrap(bytes.toByteArray())
+    SerializeChecksummed.read(buffer).getRoot(AnyPointer.factory).getAs(Text.factory).toString() should equal ("checked")
+    buffer.remaining() should equal (0)
+    val stream = java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(bytes.toByteArray()))
+    SerializeChecksummed.read(stream).getRoot(AnyPointer.factory).getAs(Text.factory).toString() should equal ("checked")
+    val packed = new ArrayInputStream(ByteBuffer.wrap(packedBytes.toByteArray()))
+    SerializeChecksummed.readPacked(packed).getRoot(AnyPointer.factory).getAs(Text.factory).toString() should equal ("checked")
+
+    // a flipped bit in the text is caught before anything is read
+    val corrupted = bytes.toByteArray()
+    corrupted(corrupted.length - 12) = (corrupted(corrupted.length - 12) ^ 1).toByte
+    a [DecodeException] should be thrownBy SerializeChecksummed.read(ByteBuffer.wrap(corrupted))
+    a [DecodeException] should be thrownBy SerializeChecksummed.read(
+      java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(corrupted)))
+  }
 }